@@ -0,0 +1,12 @@
+# usage: ./daemon-submit.sh (train|evaluate|shutdown) [args]
+# the port of the daemon can be changed with DAEMON_PORT
+exec 3<>/dev/tcp/127.0.0.1/${DAEMON_PORT:-9200} || exit 1
+echo "$*" >&3
+status=1
+while IFS= read -r line <&3; do
+  case "$line" in
+    "exit: "*) status=${line#exit: } ;;
+    *) echo "$line" ;;
+  esac
+done
+exit $status
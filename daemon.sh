@@ -0,0 +1,2 @@
+mvn clean compile exec:java -Dexec.mainClass="com.github.rinde.gpem17.Daemon" \
+-Dexec.args="${1:-9200}"
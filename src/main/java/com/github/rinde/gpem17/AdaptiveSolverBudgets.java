@@ -0,0 +1,301 @@
+/*
+ * Copyright (C) 2011-2016 Rinde van Lon, iMinds-DistriNet, KU Leuven
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.rinde.gpem17;
+
+import static com.google.common.base.Preconditions.checkState;
+
+import java.io.Serializable;
+import java.util.Collections;
+import java.util.Set;
+import java.util.WeakHashMap;
+
+import javax.annotation.Nullable;
+
+import com.github.rinde.gpem17.eval.RealtimeSlots;
+import com.github.rinde.rinsim.central.GlobalStateObject;
+import com.github.rinde.rinsim.central.rt.RealtimeSolver;
+import com.github.rinde.rinsim.central.rt.Scheduler;
+import com.github.rinde.rinsim.core.SimulatorAPI;
+import com.github.rinde.rinsim.pdptw.common.AddVehicleEvent;
+import com.github.rinde.rinsim.pdptw.common.ObjectiveFunction;
+import com.github.rinde.rinsim.scenario.TimedEventHandler;
+import com.github.rinde.rinsim.util.StochasticSupplier;
+import com.github.rinde.rinsim.util.StochasticSuppliers.AbstractStochasticSupplier;
+import com.google.common.collect.ImmutableList;
+
+/**
+ * Scales the time budget of the OptaPlanner solvers of real-time simulations
+ * with the load, such that concurrently running simulations do not miss
+ * ticks. The load is the maximum of the lateness of the real-time ticks of the
+ * simulation relative to {@link #MAX_TICK_LAG} and the number of computing
+ * solvers in the JVM relative to the number of solver threads. When the load
+ * is at most one the nominal budget is used, every doubling of the load halves
+ * the budget.
+ * <p>
+ * The tick lateness is kept per simulation in a {@link Load}, which is owned
+ * by the {@link com.github.rinde.gpem17.eval.TickLogger} of the simulation.
+ * The solvers of a vehicle receive the load of their simulation when the
+ * vehicle is added (see {@link VehicleHandler}), such that the lateness of a
+ * simulation does not affect other (e.g. later) simulations regardless of the
+ * thread that notifies the solvers. The load also counts how often each budget
+ * level is chosen, this is reported in the tick log of the simulation.
+ * <p>
+ * The budget of an OptaPlanner solver is fixed when it is constructed, the
+ * solver of a vehicle therefore switches between solvers with different
+ * budgets, one per {@link #LEVELS level}.
+ * @author Rinde van Lon
+ */
+public final class AdaptiveSolverBudgets {
+  /**
+   * The fractions of the nominal budget.
+   */
+  static final double[] LEVELS = {1d, .5, .25, .125};
+  /**
+   * The average lateness of a tick (relative to the tick length) that is
+   * tolerated before budgets are reduced.
+   */
+  static final double MAX_TICK_LAG = .05;
+  // the weight of the latest tick in the running average
+  static final double SMOOTHING = .1;
+
+  static final Set<RealtimeSolver> SOLVERS = Collections.synchronizedSet(
+    Collections.newSetFromMap(new WeakHashMap<RealtimeSolver, Boolean>()));
+
+  private AdaptiveSolverBudgets() {}
+
+  static int computingSolvers() {
+    int computing = 0;
+    synchronized (SOLVERS) {
+      for (final RealtimeSolver s : SOLVERS) {
+        if (s.isComputing()) {
+          computing++;
+        }
+      }
+    }
+    return computing;
+  }
+
+  static int level(Load load) {
+    final int capacity =
+      RealtimeSlots.numSlots() * RealtimeSlots.SOLVER_THREADS_PER_SLOT;
+    return level(Math.max(load.tickLag() / MAX_TICK_LAG,
+      (double) computingSolvers() / capacity));
+  }
+
+  static int level(double load) {
+    if (load <= 1d) {
+      return 0;
+    }
+    final int level = (int) Math.ceil(Math.log(load) / Math.log(2));
+    return Math.min(LEVELS.length - 1, level);
+  }
+
+  /**
+   * @param load The load of the simulation in which the solvers are used.
+   * @param objFunc The objective function.
+   * @param unimprovedMsLimit The nominal budget: the time after which the
+   *          solver stops when it did not find an improvement.
+   * @param timeMeasurements Whether computation times should be measured.
+   * @return A supplier of solvers with adaptive budgets.
+   */
+  public static StochasticSupplier<RealtimeSolver> supplier(final Load load,
+      ObjectiveFunction objFunc, long unimprovedMsLimit,
+      boolean timeMeasurements) {
+    // the suppliers are created (and warmed up) before the simulations start
+    final ImmutableList.Builder<StochasticSupplier<RealtimeSolver>> levels =
+      ImmutableList.builder();
+    for (final double fraction : LEVELS) {
+      levels.add(SharedOptaPlannerSolvers.get(objFunc,
+        Math.max(1L, Math.round(unimprovedMsLimit * fraction)),
+        timeMeasurements));
+    }
+    final ImmutableList<StochasticSupplier<RealtimeSolver>> suppliers =
+      levels.build();
+    return new AbstractStochasticSupplier<RealtimeSolver>() {
+      private static final long serialVersionUID = -3816069435468261547L;
+
+      @Override
+      public RealtimeSolver get(long seed) {
+        final AdaptiveSolver solver = new AdaptiveSolver(suppliers, load, seed);
+        SOLVERS.add(solver);
+        return solver;
+      }
+    };
+  }
+
+  static class AdaptiveSolver implements RealtimeSolver {
+    final ImmutableList<StochasticSupplier<RealtimeSolver>> suppliers;
+    final Load load;
+    final long seed;
+    // created on first use
+    final RealtimeSolver[] solvers;
+    @Nullable
+    Scheduler scheduler;
+    int active;
+
+    AdaptiveSolver(ImmutableList<StochasticSupplier<RealtimeSolver>> sups,
+        Load l, long sd) {
+      suppliers = sups;
+      load = l;
+      seed = sd;
+      solvers = new RealtimeSolver[sups.size()];
+    }
+
+    @Override
+    public void init(Scheduler s) {
+      scheduler = s;
+    }
+
+    RealtimeSolver solver(int level) {
+      if (solvers[level] == null) {
+        solvers[level] = suppliers.get(level).get(seed);
+        // all solvers report to the same scheduler, only one computes
+        solvers[level].init(scheduler);
+      }
+      return solvers[level];
+    }
+
+    @Override
+    public void problemChanged(GlobalStateObject snapshot) {
+      final int level = level(load);
+      load.count(level);
+      if (level != active && solver(active).isComputing()) {
+        solver(active).cancel();
+      }
+      active = level;
+      solver(active).problemChanged(snapshot);
+    }
+
+    @Override
+    public void receiveSnapshot(GlobalStateObject snapshot) {
+      solver(active).receiveSnapshot(snapshot);
+    }
+
+    @Override
+    public void cancel() {
+      for (final RealtimeSolver s : solvers) {
+        if (s != null && s.isComputing()) {
+          s.cancel();
+        }
+      }
+    }
+
+    @Override
+    public boolean isComputing() {
+      for (final RealtimeSolver s : solvers) {
+        if (s != null && s.isComputing()) {
+          return true;
+        }
+      }
+      return false;
+    }
+  }
+
+  /**
+   * Implemented by objects that need the {@link Load} of the simulation in
+   * which they are registered, the load is provided by the
+   * {@link com.github.rinde.gpem17.eval.TickLogger} of the simulation.
+   */
+  public interface LoadUser {
+    /**
+     * @param load The load of the simulation.
+     */
+    void setLoad(Load load);
+  }
+
+  /**
+   * Handler of {@link AddVehicleEvent}s that creates the vehicle with solvers
+   * that use the {@link Load} of the simulation. Requires a
+   * {@link com.github.rinde.gpem17.eval.TickLogger} in the simulation.
+   */
+  public abstract static class VehicleHandler
+      implements TimedEventHandler<AddVehicleEvent>, Serializable {
+    private static final long serialVersionUID = 4508291664386735718L;
+
+    @Override
+    public void handleTimedEvent(AddVehicleEvent event,
+        SimulatorAPI simulator) {
+      final LoadReceiver receiver = new LoadReceiver();
+      simulator.register(receiver);
+      simulator.unregister(receiver);
+      checkState(receiver.load != null,
+        "The simulation did not provide a load.");
+      create(receiver.load).handleTimedEvent(event, simulator);
+    }
+
+    /**
+     * @param load The load of the simulation.
+     * @return The handler that adds the vehicle, its solvers should be
+     *         obtained via {@link AdaptiveSolverBudgets#supplier(Load,
+     *         ObjectiveFunction, long, boolean)} with the specified load.
+     */
+    protected abstract TimedEventHandler<AddVehicleEvent> create(Load load);
+  }
+
+  static class LoadReceiver implements LoadUser {
+    @Nullable
+    Load load;
+
+    @Override
+    public void setLoad(Load l) {
+      load = l;
+    }
+  }
+
+  /**
+   * The smoothed lateness of the real-time ticks of a simulation and the
+   * number of times each budget level is chosen in that simulation.
+   */
+  public static final class Load {
+    final int[] levelCounts;
+    double tickLag;
+
+    /**
+     * Creates the load of a new simulation.
+     */
+    public Load() {
+      levelCounts = new int[LEVELS.length];
+    }
+
+    /**
+     * Records the time between two real-time ticks of the simulation.
+     * @param intervalNs The time between the ticks in ns.
+     * @param tickLengthNs The tick length in ns.
+     */
+    public synchronized void recordTickInterval(long intervalNs,
+        long tickLengthNs) {
+      final double lateness =
+        Math.max(0d, (double) (intervalNs - tickLengthNs) / tickLengthNs);
+      tickLag = SMOOTHING * lateness + (1 - SMOOTHING) * tickLag;
+    }
+
+    synchronized double tickLag() {
+      return tickLag;
+    }
+
+    synchronized void count(int level) {
+      levelCounts[level]++;
+    }
+
+    /**
+     * @return For every level of {@link #LEVELS}, the number of times that it
+     *         was chosen.
+     */
+    public synchronized int[] getLevelCounts() {
+      return levelCounts.clone();
+    }
+  }
+}
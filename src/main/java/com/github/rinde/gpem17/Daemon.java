@@ -0,0 +1,145 @@
+/*
+ * Copyright (C) 2011-2016 Rinde van Lon, iMinds-DistriNet, KU Leuven
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.rinde.gpem17;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.PrintStream;
+import java.net.InetAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.Arrays;
+import java.util.List;
+
+import com.github.rinde.gpem17.eval.Evaluate;
+import com.google.common.base.Charsets;
+import com.google.common.base.Splitter;
+
+/**
+ * A long-lived JVM that runs {@link Train} and {@link Evaluate} jobs, such that
+ * consecutive jobs do not pay for JVM start up, class loading and JIT warm-up,
+ * and share the scenarios that are already loaded. Jobs are submitted via a
+ * socket on the loopback interface (see <code>daemon-submit.sh</code>): a
+ * client sends a single line with the job (<code>train</code> or
+ * <code>evaluate</code>) followed by the arguments of its main method, the
+ * output of the job is sent back to the client and the last line is the exit
+ * status (<code>exit: 0</code> or <code>exit: 1</code>). Jobs are executed one
+ * at a time in order of arrival, <code>shutdown</code> stops the daemon. A job
+ * that fails with an {@link Error} (e.g. {@link OutOfMemoryError}) also stops
+ * the daemon, as the state of the JVM can no longer be trusted.
+ * @author Rinde van Lon
+ */
+public final class Daemon {
+  static final int DEFAULT_PORT = 9200;
+
+  private Daemon() {}
+
+  /**
+   * Starts the daemon.
+   * @param args Optionally, the port to listen on.
+   */
+  public static void main(String[] args) {
+    final int port = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_PORT;
+    try (ServerSocket server =
+      new ServerSocket(port, 50, InetAddress.getLoopbackAddress())) {
+      System.out.println("Daemon listening on port " + server.getLocalPort()
+        + ".");
+      boolean running = true;
+      while (running) {
+        try (Socket socket = server.accept()) {
+          running = handle(socket);
+        } catch (final IOException e) {
+          System.err.println("Connection failed: " + e);
+        }
+      }
+    } catch (final IOException e) {
+      throw new IllegalStateException(e);
+    } catch (final Error e) {
+      // threads that are left behind by the failed job should not keep the
+      // JVM alive
+      e.printStackTrace();
+      System.out.println("Daemon stopped.");
+      System.exit(1);
+    }
+    System.out.println("Daemon stopped.");
+  }
+
+  // returns false if the daemon should stop
+  static boolean handle(Socket socket) throws IOException {
+    final BufferedReader in = new BufferedReader(
+      new InputStreamReader(socket.getInputStream(), Charsets.UTF_8));
+    final String line = in.readLine();
+    if (line == null) {
+      return true;
+    }
+    final List<String> command =
+      Splitter.on(' ').omitEmptyStrings().trimResults().splitToList(line);
+    final PrintStream client =
+      new PrintStream(socket.getOutputStream(), true, Charsets.UTF_8.name());
+    if (command.isEmpty()) {
+      client.println("exit: 1");
+      return true;
+    }
+    if (command.get(0).equals("shutdown")) {
+      client.println("exit: 0");
+      return false;
+    }
+    System.out.println("Start " + line);
+    final long start = System.currentTimeMillis();
+    final boolean success;
+    try {
+      success = run(command, client);
+    } catch (final Error e) {
+      e.printStackTrace(client);
+      client.println("exit: 1");
+      throw e;
+    }
+    System.out.println((success ? "Done " : "Failed ") + line + " ("
+      + (System.currentTimeMillis() - start) / 1000d + "s)");
+    client.println("exit: " + (success ? 0 : 1));
+    return true;
+  }
+
+  // runs the job with the output of this JVM redirected to the client
+  static boolean run(List<String> command, PrintStream client) {
+    final String job = command.get(0);
+    final String[] args = command.subList(1, command.size())
+      .toArray(new String[command.size() - 1]);
+    final PrintStream out = System.out;
+    final PrintStream err = System.err;
+    System.setOut(client);
+    System.setErr(client);
+    try {
+      if (job.equals("train")) {
+        Train.main(args);
+      } else if (job.equals("evaluate")) {
+        Evaluate.main(args);
+      } else {
+        client.println("Unknown job '" + job + "', expected one of "
+          + Arrays.asList("train", "evaluate", "shutdown") + ".");
+        return false;
+      }
+      return true;
+    } catch (final RuntimeException e) {
+      e.printStackTrace(client);
+      return false;
+    } finally {
+      System.setOut(out);
+      System.setErr(err);
+    }
+  }
+}
@@ -18,6 +18,10 @@ package com.github.rinde.gpem17;
 import com.github.rinde.ecj.PriorityHeuristic;
 import com.github.rinde.evo4mas.common.EvoBidder;
 import com.github.rinde.evo4mas.common.GpGlobal;
+import com.github.rinde.gpem17.AdaptiveSolverBudgets.Load;
+import com.github.rinde.gpem17.eval.RealtimeSlots;
+import com.github.rinde.gpem17.eval.TickLogger;
+import com.github.rinde.gpem17.evo.BatchProgram;
 import com.github.rinde.logistics.pdptw.mas.TruckFactory.DefaultTruckFactory;
 import com.github.rinde.logistics.pdptw.mas.comm.AuctionCommModel;
 import com.github.rinde.logistics.pdptw.mas.comm.AuctionPanel;
@@ -28,17 +32,16 @@ import com.github.rinde.logistics.pdptw.mas.comm.DoubleBid;
 import com.github.rinde.logistics.pdptw.mas.route.RoutePlanner;
 import com.github.rinde.logistics.pdptw.mas.route.RtSolverRoutePlanner;
 import com.github.rinde.logistics.pdptw.solver.CheapestInsertionHeuristic;
-import com.github.rinde.logistics.pdptw.solver.optaplanner.OptaplannerSolvers;
 import com.github.rinde.rinsim.central.SolverModel;
 import com.github.rinde.rinsim.central.rt.RtSolverModel;
 import com.github.rinde.rinsim.central.rt.RtStAdapters;
-import com.github.rinde.rinsim.core.model.time.RealtimeClockLogger;
 import com.github.rinde.rinsim.experiment.MASConfiguration;
 import com.github.rinde.rinsim.pdptw.common.AddVehicleEvent;
 import com.github.rinde.rinsim.pdptw.common.RouteFollowingVehicle;
 import com.github.rinde.rinsim.pdptw.common.RoutePanel;
 import com.github.rinde.rinsim.pdptw.common.RouteRenderer;
 import com.github.rinde.rinsim.pdptw.common.TimeLinePanel;
+import com.github.rinde.rinsim.scenario.TimedEventHandler;
 import com.github.rinde.rinsim.scenario.gendreau06.Gendreau06ObjectiveFunction;
 import com.github.rinde.rinsim.ui.View;
 import com.github.rinde.rinsim.ui.renderers.PDPModelRenderer;
@@ -85,15 +88,29 @@ public class GPEM17 {
       boolean rt,
       String name,
       boolean enableTimeMeasurements) {
+    return createConfig(truckFactory(rp, cm), rt, name,
+      enableTimeMeasurements);
+  }
+
+  static TimedEventHandler<AddVehicleEvent> truckFactory(
+      StochasticSupplier<? extends RoutePlanner> rp,
+      StochasticSupplier<? extends Communicator> cm) {
+    return DefaultTruckFactory.builder()
+      .setRoutePlanner(rp)
+      .setCommunicator(cm)
+      .setLazyComputation(false)
+      .setRouteAdjuster(RouteFollowingVehicle.delayAdjuster())
+      .build();
+  }
+
+  static MASConfiguration createConfig(
+      TimedEventHandler<AddVehicleEvent> vehicleHandler,
+      boolean rt,
+      String name,
+      boolean enableTimeMeasurements) {
     MASConfiguration.Builder builder = MASConfiguration.pdptwBuilder()
       .setName(name)
-      .addEventHandler(AddVehicleEvent.class,
-        DefaultTruckFactory.builder()
-          .setRoutePlanner(rp)
-          .setCommunicator(cm)
-          .setLazyComputation(false)
-          .setRouteAdjuster(RouteFollowingVehicle.delayAdjuster())
-          .build())
+      .addEventHandler(AddVehicleEvent.class, vehicleHandler)
       .addModel(AuctionCommModel.builder(DoubleBid.class)
         .withStopCondition(
           AuctionStopConditions.and(
@@ -106,9 +123,9 @@ public class GPEM17 {
     if (rt) {
       builder
         .addModel(RtSolverModel.builder()
-          .withThreadPoolSize(3)
+          .withThreadPoolSize(RealtimeSlots.SOLVER_THREADS_PER_SLOT)
           .withThreadGrouping(true))
-        .addModel(RealtimeClockLogger.builder());
+        .addModel(TickLogger.builder().withClockAffinity(true));
     } else {
       builder.addModel(SolverModel.builder());
     }
@@ -126,29 +143,36 @@ public class GPEM17 {
 
   public enum RpOpt {
     CIH {
-      StochasticSupplier<RoutePlanner> create() {
-        return RtSolverRoutePlanner.supplier(RtStAdapters.toRealtime(
-          CheapestInsertionHeuristic.supplier(GPEM17.OBJ_FUNC)));
+      TimedEventHandler<AddVehicleEvent> vehicleHandler(
+          StochasticSupplier<? extends Communicator> cm) {
+        return truckFactory(RtSolverRoutePlanner.supplier(
+          RtStAdapters.toRealtime(
+            CheapestInsertionHeuristic.supplier(GPEM17.OBJ_FUNC))),
+          cm);
       }
     },
 
     OPTA_PLANNER {
-      StochasticSupplier<RoutePlanner> create() {
+      TimedEventHandler<AddVehicleEvent> vehicleHandler(
+          final StochasticSupplier<? extends Communicator> cm) {
         final long rpMs = 2500L;
-        final String masSolverName =
-          "Step-counting-hill-climbing-with-entity-tabu-and-strategic-oscillation";
-        return RtSolverRoutePlanner.supplier(
-          OptaplannerSolvers.builder()
-            .withSolverXmlResource(
-              "com/github/rinde/jaamas16/jaamas-solver.xml")
-            .withObjectiveFunction(GPEM17.OBJ_FUNC)
-            .withName(masSolverName)
-            .withUnimprovedMsLimit(rpMs)
-            .buildRealtimeSolverSupplier());
+        // the route planners use the load of their simulation
+        return new AdaptiveSolverBudgets.VehicleHandler() {
+          private static final long serialVersionUID = -2196411238507384513L;
+
+          @Override
+          protected TimedEventHandler<AddVehicleEvent> create(Load load) {
+            return truckFactory(RtSolverRoutePlanner.supplier(
+              AdaptiveSolverBudgets.supplier(load, GPEM17.OBJ_FUNC, rpMs,
+                false)),
+              cm);
+          }
+        };
       }
     };
 
-    abstract StochasticSupplier<RoutePlanner> create();
+    abstract TimedEventHandler<AddVehicleEvent> vehicleHandler(
+        StochasticSupplier<? extends Communicator> cm);
 
   }
 
@@ -161,7 +185,8 @@ public class GPEM17 {
       boolean enableTimeMeasurements,
       long computationDelay) {
 
-    EvoBidder.Builder cm = EvoBidder.realtimeBuilder(solver, objFunc)
+    EvoBidder.Builder cm = EvoBidder
+      .realtimeBuilder(BatchProgram.compileIfPossible(solver), objFunc)
       .withTimeMeasurement(enableTimeMeasurements)
       .withComputationDelay(computationDelay)
       .withReauctionCooldownPeriod(60000);
@@ -173,7 +198,7 @@ public class GPEM17 {
     }
     String name =
       "RTMAS-RP-" + rpOpt.name() + "-BID-EVO-REAUCT-" + reauctOpt + "-" + id;
-    return createConfig(solver, rpOpt.create(), cm, true, name,
+    return createConfig(rpOpt.vehicleHandler(cm), true, name,
       enableTimeMeasurements);
   }
 
@@ -184,8 +209,9 @@ public class GPEM17 {
       boolean enableTimeMeasurements) {
     StochasticSupplier<RoutePlanner> rp =
       RtSolverRoutePlanner.simulatedTimeSupplier(
-        CheapestInsertionHeuristic.supplier(objFunc));
-    EvoBidder.Builder cm = EvoBidder.simulatedTimeBuilder(solver, objFunc)
+        IncrementalCheapestInsertion.supplier(objFunc));
+    EvoBidder.Builder cm = EvoBidder
+      .simulatedTimeBuilder(BatchProgram.compileIfPossible(solver), objFunc)
       .withTimeMeasurement(enableTimeMeasurements)
       .withReauctionCooldownPeriod(60000);
 
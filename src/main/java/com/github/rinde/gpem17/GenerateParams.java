@@ -20,6 +20,7 @@ import java.io.IOException;
 import java.util.Map;
 
 import com.google.common.base.Charsets;
+import com.google.common.base.Joiner;
 import com.google.common.collect.ImmutableList;
 import com.google.common.io.Files;
 
@@ -85,7 +86,9 @@ public class GenerateParams {
 
   static void generateTuningExperiments() throws IOException {
     // #tt-td-ot
-    for (String weights : ImmutableList.of("1-1-1", ".5-1-1")) {
+    final ImmutableList<String> weightSets =
+      ImmutableList.of("1-1-1", ".5-1-1");
+    for (String weights : weightSets) {
       // seeds obtained from random.org
       for (long seed : ImmutableList.of(91404445L, 56862982L, 76980253L)) {
         StringBuilder sb =
@@ -97,6 +100,10 @@ public class GenerateParams {
           .append(System.lineSeparator())
           .append("eval.obj_func_weights = ")
           .append(weights)
+          .append(System.lineSeparator())
+          // every run is also scored with the other weights
+          .append("eval.obj_func_weight_sets = ")
+          .append(Joiner.on(",").join(weightSets))
           .append(System.lineSeparator());
 
         File dir = new File("files/config/tuning-experiments");
@@ -0,0 +1,439 @@
+/*
+ * Copyright (C) 2011-2016 Rinde van Lon, iMinds-DistriNet, KU Leuven
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.rinde.gpem17;
+
+import java.math.RoundingMode;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import javax.measure.Measure;
+import javax.measure.quantity.Duration;
+import javax.measure.quantity.Length;
+import javax.measure.quantity.Velocity;
+import javax.measure.unit.Unit;
+
+import com.github.rinde.rinsim.central.GlobalStateObject;
+import com.github.rinde.rinsim.central.GlobalStateObject.VehicleStateObject;
+import com.github.rinde.rinsim.central.GlobalStateObjects;
+import com.github.rinde.rinsim.central.Solver;
+import com.github.rinde.rinsim.core.model.pdp.Parcel;
+import com.github.rinde.rinsim.core.model.road.RoadModels;
+import com.github.rinde.rinsim.geom.Point;
+import com.github.rinde.rinsim.pdptw.common.StatisticsDTO;
+import com.github.rinde.rinsim.scenario.gendreau06.Gendreau06ObjectiveFunction;
+import com.github.rinde.rinsim.util.StochasticSupplier;
+import com.github.rinde.rinsim.util.StochasticSuppliers.AbstractStochasticSupplier;
+import com.github.rinde.rinsim.util.TimeWindow;
+import com.google.common.collect.ImmutableList;
+import com.google.common.math.DoubleMath;
+
+/**
+ * Cheapest insertion heuristic that computes the same schedules as
+ * <code>CheapestInsertionHeuristic</code> for the
+ * {@link Gendreau06ObjectiveFunction}, but without simulating the complete
+ * route for every insertion candidate. For every route the arrival times,
+ * travelled distance and tardiness after each stop are kept, a candidate only
+ * replays the stops after the insertion point. The replay uses the stored
+ * values as soon as the schedule is back in sync with the old schedule (i.e.
+ * the delay caused by the insertion is absorbed by waiting time). The
+ * distance is still summed in route order such that the costs are bit
+ * identical to those computed with
+ * <code>Solvers.computeStats(..)</code>. The distances and travel times of
+ * all legs that a candidate can travel are computed once per route and parcel
+ * (see {@link Legs}), such that a candidate does not compute any distances.
+ * @author Rinde van Lon
+ */
+public final class IncrementalCheapestInsertion implements Solver {
+  // locations of Legs that are not a stop of the route
+  static final int START = -1;
+  static final int PICKUP = -2;
+  static final int DELIVERY = -3;
+  static final int DEPOT = -4;
+
+  final Gendreau06ObjectiveFunction objectiveFunction;
+
+  IncrementalCheapestInsertion(Gendreau06ObjectiveFunction objFunc) {
+    objectiveFunction = objFunc;
+  }
+
+  @Override
+  public ImmutableList<ImmutableList<Parcel>> solve(GlobalStateObject state)
+      throws InterruptedException {
+    final List<ImmutableList<Parcel>> schedule = new ArrayList<>();
+    final List<Route> routes = new ArrayList<>();
+    for (int i = 0; i < state.getVehicles().size(); i++) {
+      final VehicleStateObject vso = state.getVehicles().get(i);
+      final ImmutableList<Parcel> route = vso.getRoute().isPresent()
+        ? vso.getRoute().get()
+        : ImmutableList.<Parcel>of();
+      schedule.add(route);
+      routes.add(new Route(state, vso, route));
+    }
+
+    for (final Parcel p : GlobalStateObjects.unassignedParcels(state)) {
+      double cheapestInsertion = Double.POSITIVE_INFINITY;
+      int cheapestRouteIndex = -1;
+      int cheapestPickup = -1;
+      int cheapestDelivery = -1;
+
+      for (int i = 0; i < routes.size(); i++) {
+        final Route route = routes.get(i);
+        final Legs legs = new Legs(route, p);
+        final int startIndex =
+          state.getVehicles().get(i).getDestination().isPresent() ? 1 : 0;
+        final double routeCost = route.cost;
+        for (int pi = startIndex; pi <= route.size; pi++) {
+          for (int di = pi; di <= route.size; di++) {
+            if (Thread.interrupted()) {
+              throw new InterruptedException(
+                "Execution of cheapest insertion heuristic was interrupted.");
+            }
+            final double insertionCost =
+              route.insertionCost(legs, pi, di) - routeCost;
+            if (insertionCost < cheapestInsertion) {
+              cheapestInsertion = insertionCost;
+              cheapestRouteIndex = i;
+              cheapestPickup = pi;
+              cheapestDelivery = di;
+            }
+          }
+        }
+      }
+
+      final ImmutableList<Parcel> newRoute = insert(
+        schedule.get(cheapestRouteIndex), p, cheapestPickup, cheapestDelivery);
+      schedule.set(cheapestRouteIndex, newRoute);
+      routes.set(cheapestRouteIndex, new Route(state,
+        state.getVehicles().get(cheapestRouteIndex), newRoute));
+    }
+    return ImmutableList.copyOf(schedule);
+  }
+
+  // inserts the pickup of p before position pi and the delivery before
+  // position di of the original route
+  static ImmutableList<Parcel> insert(List<Parcel> route, Parcel p, int pi,
+      int di) {
+    final ImmutableList.Builder<Parcel> b = ImmutableList.builder();
+    b.addAll(route.subList(0, pi));
+    b.add(p);
+    b.addAll(route.subList(pi, di));
+    b.add(p);
+    b.addAll(route.subList(di, route.size()));
+    return b.build();
+  }
+
+  /**
+   * Creates a supplier of {@link IncrementalCheapestInsertion} instances.
+   * @param objFunc The objective function.
+   * @return The supplier.
+   */
+  public static StochasticSupplier<Solver> supplier(
+      final Gendreau06ObjectiveFunction objFunc) {
+    return new AbstractStochasticSupplier<Solver>() {
+      private static final long serialVersionUID = 6394813207453286520L;
+
+      @Override
+      public Solver get(long seed) {
+        return new IncrementalCheapestInsertion(objFunc);
+      }
+    };
+  }
+
+  // The schedule of a single vehicle, stop k is the k-th element of the
+  // route. Mirrors the computations of Solvers.computeStats(..).
+  final class Route {
+    final VehicleStateObject vso;
+    final Measure<Double, Velocity> speed;
+    final Unit<Duration> timeUnit;
+    final Unit<Length> distUnit;
+    final long startTime;
+    final ImmutableList<Parcel> parcels;
+    final int size;
+    // whether the first stop is the parcel that is being serviced, in that
+    // case the vehicle does not move to the first stop
+    final boolean servicing;
+    // whether the parcel is delivered at stop k
+    final boolean[] delivery;
+    // the distance and travel time of the leg that ends at stop k, the last
+    // element is the leg back to the depot
+    final double[] legDist;
+    final long[] legTime;
+    // the state after stop k
+    final long[] time;
+    final long[] tardiness;
+    final double[] distance;
+    final double cost;
+
+    Route(GlobalStateObject state, VehicleStateObject v,
+        ImmutableList<Parcel> route) {
+      vso = v;
+      speed = Measure.valueOf(vso.getDto().getSpeed(), state.getSpeedUnit());
+      timeUnit = state.getTimeUnit();
+      distUnit = state.getDistUnit();
+      startTime = state.getTime();
+      parcels = route;
+      size = route.size();
+      servicing = size > 0 && vso.getRemainingServiceTime() > 0;
+      delivery = new boolean[size];
+      legDist = new double[size + 1];
+      legTime = new long[size + 1];
+      time = new long[size];
+      tardiness = new long[size];
+      distance = new double[size];
+
+      final Set<Parcel> seen = new HashSet<>();
+      final Cursor c = new Cursor(startTime, START);
+      Point from = vso.getLocation();
+      for (int k = 0; k < size; k++) {
+        final Parcel cur = route.get(k);
+        delivery[k] = vso.getContents().contains(cur) || seen.contains(cur);
+        seen.add(cur);
+        final Point to = k == 0 && servicing ? from : location(k);
+        legDist[k] = Point.distance(from, to);
+        legTime[k] = travelTime(legDist[k]);
+        c.visit(cur, delivery[k], k == 0, legDist[k], legTime[k], k);
+        from = to;
+        time[k] = c.time;
+        tardiness[k] = c.tardiness;
+        distance[k] = c.distance;
+      }
+      legDist[size] = Point.distance(from, vso.getDto().getStartPosition());
+      legTime[size] = travelTime(legDist[size]);
+      cost = c.finish(legDist[size], legTime[size]);
+    }
+
+    // the location of stop k
+    Point location(int k) {
+      return delivery[k]
+        ? parcels.get(k).getDeliveryLocation()
+        : parcels.get(k).getPickupLocation();
+    }
+
+    // the position of the vehicle after the stops up to k of this route
+    int position(int k) {
+      return k == 0 && servicing ? START : k;
+    }
+
+    // the cost of the route with the pickup of p inserted before stop pi and
+    // the delivery before stop di
+    double insertionCost(Legs legs, int pi, int di) {
+      final Cursor c = pi == 0
+        ? new Cursor(startTime, START)
+        : new Cursor(time[pi - 1], position(pi - 1), tardiness[pi - 1],
+          distance[pi - 1]);
+      c.visit(legs.parcel, false, pi == 0, legs, PICKUP);
+      c.replay(pi, di, legs);
+      c.visit(legs.parcel, true, false, legs, DELIVERY);
+      c.replay(di, size, legs);
+      return c.finish(legs.distance(c.at, DEPOT), legs.time(c.at, DEPOT));
+    }
+
+    long travelTime(double dist) {
+      return DoubleMath.roundToLong(
+        RoadModels.computeTravelTime(speed, Measure.valueOf(dist, distUnit),
+          timeUnit),
+        RoundingMode.CEILING);
+    }
+
+    final class Cursor {
+      long time;
+      // the location of the vehicle, a stop of the route or one of the
+      // locations of Legs
+      int at;
+      long tardiness;
+      double distance;
+
+      Cursor(long t, int loc) {
+        this(t, loc, 0L, 0d);
+      }
+
+      Cursor(long t, int loc, long tard, double dist) {
+        time = t;
+        at = loc;
+        tardiness = tard;
+        distance = dist;
+      }
+
+      void visit(Parcel cur, boolean inCargo, boolean first, Legs legs,
+          int to) {
+        visit(cur, inCargo, first, legs.distance(at, to), legs.time(at, to),
+          to);
+      }
+
+      // travels to location 'to' via a leg with the specified distance and
+      // travel time, unless the parcel is being serviced
+      void visit(Parcel cur, boolean inCargo, boolean first, double dist,
+          long tt, int to) {
+        final boolean serviced = first && vso.getRemainingServiceTime() > 0;
+        if (serviced) {
+          time += vso.getRemainingServiceTime();
+        } else {
+          travel(dist, tt);
+          at = to;
+        }
+        serve(cur, inCargo, serviced);
+      }
+
+      void travel(double dist, long tt) {
+        distance += Measure.valueOf(dist, distUnit).getValue();
+        time += tt;
+      }
+
+      void serve(Parcel cur, boolean inCargo, boolean serviced) {
+        final TimeWindow tw = inCargo
+          ? cur.getDeliveryTimeWindow()
+          : cur.getPickupTimeWindow();
+        if (tw.isBeforeStart(time)) {
+          time = tw.begin();
+        }
+        if (!serviced) {
+          time += inCargo ? cur.getDeliveryDuration() : cur.getPickupDuration();
+        }
+        if (tw.isAfterEnd(time)) {
+          tardiness += time - tw.end();
+        }
+      }
+
+      // visits the stops from (inclusive) to (exclusive) of the route, the
+      // first stop is always reached from a newly inserted stop
+      void replay(int from, int to, Legs legs) {
+        if (from == to) {
+          return;
+        }
+        visit(parcels.get(from), delivery[from], false, legs, from);
+        for (int k = from + 1; k < to; k++) {
+          if (time == Route.this.time[k - 1]) {
+            // in sync: the times and tardiness of the remaining stops are
+            // equal to those of the original route
+            for (int l = k; l < to; l++) {
+              distance += legDist[l];
+            }
+            tardiness += Route.this.tardiness[to - 1]
+              - Route.this.tardiness[k - 1];
+            time = Route.this.time[to - 1];
+            at = position(to - 1);
+            return;
+          }
+          travel(legDist[k], legTime[k]);
+          at = position(k);
+          serve(parcels.get(k), delivery[k], false);
+        }
+      }
+
+      // returns to the depot via the specified leg and computes the cost
+      double finish(double dist, long tt) {
+        travel(dist, tt);
+        long overTime = 0L;
+        final TimeWindow tw = vso.getDto().getAvailabilityTimeWindow();
+        if (tw.isAfterEnd(time)) {
+          overTime = time - tw.end();
+        }
+        return objectiveFunction.computeCost(new StatisticsDTO(distance, 0,
+          0, 0, 0, tardiness, 0L, 0L, 0L, false, 0, overTime, 1, 0, timeUnit,
+          distUnit, speed.getUnit()));
+      }
+    }
+  }
+
+  /**
+   * The distances and travel times of all legs that can be travelled when a
+   * parcel is inserted in a route. Locations are identified by an index: the
+   * stops of the route are 0 to size - 1, the other locations have negative
+   * indices ({@link #START}, {@link #PICKUP}, {@link #DELIVERY} and
+   * {@link #DEPOT}). The legs are computed once per route and parcel, such
+   * that evaluating an insertion point only reads from this table.
+   */
+  static final class Legs {
+    final Route route;
+    final Parcel parcel;
+    final int size;
+    final double[] distance;
+    final long[] time;
+
+    Legs(Route r, Parcel p) {
+      route = r;
+      parcel = p;
+      size = r.size;
+      distance = new double[5 * size + 5];
+      time = new long[distance.length];
+      for (int from = START; from < size; from++) {
+        compute(from, PICKUP);
+        compute(from, DELIVERY);
+        compute(from, DEPOT);
+      }
+      for (int k = 0; k < size; k++) {
+        compute(PICKUP, k);
+        compute(DELIVERY, k);
+      }
+      compute(PICKUP, DELIVERY);
+      compute(DELIVERY, DEPOT);
+    }
+
+    void compute(int from, int to) {
+      final int i = index(from, to);
+      distance[i] = Point.distance(location(from), location(to));
+      time[i] = route.travelTime(distance[i]);
+    }
+
+    Point location(int loc) {
+      switch (loc) {
+      case START:
+        return route.vso.getLocation();
+      case PICKUP:
+        return parcel.getPickupLocation();
+      case DELIVERY:
+        return parcel.getDeliveryLocation();
+      case DEPOT:
+        return route.vso.getDto().getStartPosition();
+      default:
+        return route.location(loc);
+      }
+    }
+
+    double distance(int from, int to) {
+      return distance[index(from, to)];
+    }
+
+    long time(int from, int to) {
+      return time[index(from, to)];
+    }
+
+    // the legs to the pickup, to the delivery and to the depot are followed
+    // by the legs from the pickup and from the delivery to each stop
+    int index(int from, int to) {
+      switch (to) {
+      case PICKUP:
+        return from + 1;
+      case DELIVERY:
+        return from == PICKUP ? 5 * size + 3 : size + 2 + from;
+      case DEPOT:
+        return from == DELIVERY ? 5 * size + 4 : 2 * size + 3 + from;
+      default:
+        if (from == PICKUP) {
+          return 3 * size + 3 + to;
+        } else if (from != DELIVERY) {
+          // a stop of the route is only reached via a leg from an inserted
+          // stop, the other legs to stops are those of the route itself
+          throw new IllegalArgumentException(
+            "There is no leg " + from + " -> " + to + ".");
+        }
+        return 4 * size + 3 + to;
+      }
+    }
+  }
+}
@@ -0,0 +1,82 @@
+/*
+ * Copyright (C) 2011-2016 Rinde van Lon, iMinds-DistriNet, KU Leuven
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.rinde.gpem17;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.github.rinde.logistics.pdptw.solver.optaplanner.OptaplannerSolvers;
+import com.github.rinde.rinsim.central.rt.RealtimeSolver;
+import com.github.rinde.rinsim.pdptw.common.ObjectiveFunction;
+import com.github.rinde.rinsim.util.StochasticSupplier;
+import com.google.common.collect.ImmutableList;
+
+/**
+ * Provides the OptaPlanner solver suppliers of the realtime configurations.
+ * There is one supplier per JVM for every distinct setting, it is shared by
+ * all vehicles and simulations such that the solver configuration is loaded
+ * only once. A supplier is warmed up when it is created by constructing a
+ * solver, this happens before the realtime simulations start.
+ * @author Rinde van Lon
+ */
+public final class SharedOptaPlannerSolvers {
+  /**
+   * The solver configuration that was used in the JAAMAS paper.
+   */
+  public static final String SOLVER_XML =
+    "com/github/rinde/jaamas16/jaamas-solver.xml";
+  /**
+   * The name of the solver in {@link #SOLVER_XML}.
+   */
+  public static final String SOLVER_NAME =
+    "Step-counting-hill-climbing-with-entity-tabu-and-strategic-oscillation";
+
+  static final Map<List<Object>, StochasticSupplier<RealtimeSolver>> SUPPLIERS =
+    new HashMap<>();
+
+  private SharedOptaPlannerSolvers() {}
+
+  /**
+   * @param objFunc The objective function.
+   * @param unimprovedMsLimit The time after which the solver stops when it
+   *          did not find an improvement.
+   * @param timeMeasurements Whether computation times should be measured.
+   * @return The shared supplier.
+   */
+  public static StochasticSupplier<RealtimeSolver> get(
+      ObjectiveFunction objFunc, long unimprovedMsLimit,
+      boolean timeMeasurements) {
+    final List<Object> key =
+      ImmutableList.<Object>of(objFunc, unimprovedMsLimit, timeMeasurements);
+    synchronized (SUPPLIERS) {
+      if (!SUPPLIERS.containsKey(key)) {
+        final StochasticSupplier<RealtimeSolver> supplier =
+          OptaplannerSolvers.builder()
+            .withSolverXmlResource(SOLVER_XML)
+            .withObjectiveFunction(objFunc)
+            .withName(SOLVER_NAME)
+            .withUnimprovedMsLimit(unimprovedMsLimit)
+            .withTimeMeasurementsEnabled(timeMeasurements)
+            .buildRealtimeSolverSupplier();
+        // loads the solver classes and configuration
+        supplier.get(0L);
+        SUPPLIERS.put(key, supplier);
+      }
+      return SUPPLIERS.get(key);
+    }
+  }
+}
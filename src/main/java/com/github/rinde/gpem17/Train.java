@@ -15,17 +15,37 @@
  */
 package com.github.rinde.gpem17;
 
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkState;
+import static java.util.Arrays.asList;
+
 import java.io.File;
 import java.io.FilenameFilter;
 import java.io.IOException;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.nio.file.Paths;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import javax.annotation.Nullable;
 
 import org.apache.commons.io.FileUtils;
 
 import com.github.rinde.gpem17.evo.AvoidExitUtil;
 import com.github.rinde.gpem17.evo.AvoidExitUtil.ExitTrappedException;
 import com.google.common.base.Charsets;
+import com.google.common.base.Joiner;
 import com.google.common.io.Files;
 
 import ec.Evolve;
@@ -35,43 +55,78 @@ import ec.Evolve;
  * @author Rinde van Lon
  */
 public class Train {
+  static final String LOG_DIR = "files/results/evo/logs/";
 
   public static void main(String[] args) {
     if (args.length == 0) {
       run("files/config/gpem17.params");
-    } else {
-      for (String file : args) {
-        File f = new File(file);
-        if (f.isDirectory()) {
-          File[] paramFiles = f.listFiles(new FilenameFilter() {
-            @Override
-            public boolean accept(File dir, String name) {
-              return name.endsWith(".params");
-            }
-          });
-
-          Arrays.sort(paramFiles, new Comparator<File>() {
-            @Override
-            public int compare(File o1, File o2) {
-              return o1.getName().compareTo(o2.getName());
-            }
-          });
-
-          for (File paramFile : paramFiles) {
-            run(paramFile.getPath());
-          }
-        } else {
-          run(file);
-        }
+      return;
+    }
+
+    int parallel = 1;
+    int cores = Runtime.getRuntime().availableProcessors();
+    int threads = 0;
+    String workerHeap = null;
+    final List<File> paramFiles = new ArrayList<>();
+    for (int i = 0; i < args.length; i++) {
+      if (args[i].equals("--parallel")) {
+        parallel = Integer.parseInt(args[++i]);
+      } else if (args[i].equals("--cores")) {
+        cores = Integer.parseInt(args[++i]);
+      } else if (args[i].equals("--worker-threads")) {
+        threads = Integer.parseInt(args[++i]);
+      } else if (args[i].equals("--worker-heap")) {
+        workerHeap = args[++i];
+      } else {
+        paramFiles.addAll(findParamFiles(new File(args[i])));
+      }
+    }
+    checkArgument(parallel > 0 && cores > 0,
+      "--parallel and --cores should be positive, found %s and %s.", parallel,
+      cores);
+
+    if (threads > 0) {
+      // worker mode, started by runParallel(..)
+      checkArgument(paramFiles.size() == 1);
+      Evolve.main(new String[] {"-file", paramFiles.get(0).getPath(),
+        "-p", "eval.threads=" + threads});
+    } else if (parallel == 1) {
+      for (File paramFile : paramFiles) {
+        run(paramFile.getPath());
       }
+    } else {
+      runParallel(paramFiles, parallel, cores, workerHeap);
     }
   }
 
+  static List<File> findParamFiles(File f) {
+    if (!f.isDirectory()) {
+      return asList(f);
+    }
+    File[] paramFiles = f.listFiles(new FilenameFilter() {
+      @Override
+      public boolean accept(File dir, String name) {
+        return name.endsWith(".params");
+      }
+    });
+
+    Arrays.sort(paramFiles, new Comparator<File>() {
+      @Override
+      public int compare(File o1, File o2) {
+        return o1.getName().compareTo(o2.getName());
+      }
+    });
+    return asList(paramFiles);
+  }
+
   static void run(String configFile) {
     AvoidExitUtil.forbidSystemExitCall();
+    int exitStatus = 0;
     try {
       Evolve.main(new String[] {"-file", configFile});
-    } catch (ExitTrappedException e) {} finally {
+    } catch (ExitTrappedException e) {
+      exitStatus = e.getStatus();
+    } finally {
       AvoidExitUtil.enableSystemExitCall();
     }
     File f = new File("nohup.out");
@@ -85,6 +140,101 @@ public class Train {
         throw new IllegalStateException(e);
       }
     }
+    checkState(exitStatus == 0, "Evolution of %s failed with exit status %s.",
+      configFile, exitStatus);
+  }
+
+  /**
+   * Runs the evolutions concurrently, each in its own JVM such that the static
+   * state of ECJ is isolated. The cores are divided evenly over the concurrent
+   * runs (see eval.threads), the output of each run is written to a separate
+   * log file in {@link #LOG_DIR}. The log file name is prefixed with the index
+   * of the run such that parameter files with the same name in different
+   * directories do not share a log file.
+   * @param paramFiles The evolutions to run.
+   * @param parallel The maximum number of concurrent runs.
+   * @param cores The total number of cores to use.
+   * @param workerHeap The maximum heap size of each JVM (the value of
+   *          <code>-Xmx</code>, e.g. <code>4g</code>), or <code>null</code> to
+   *          use the default of the JVM. This is the only JVM option that is
+   *          passed to the JVMs, the options of this JVM are not copied.
+   */
+  static void runParallel(List<File> paramFiles, int parallel, int cores,
+      @Nullable String workerHeap) {
+    final int threadsPerRun = Math.max(1, cores / parallel);
+    final File logDir = new File(LOG_DIR);
+    logDir.mkdirs();
+    System.out.println("Running " + paramFiles.size() + " evolutions, "
+      + parallel + " at a time with " + threadsPerRun + " threads each.");
+
+    final ExecutorService executor = Executors.newFixedThreadPool(parallel);
+    final Map<File, Future<Integer>> exitCodes = new LinkedHashMap<>();
+    for (int i = 0; i < paramFiles.size(); i++) {
+      final File paramFile = paramFiles.get(i);
+      final File log = new File(logDir, String.format("%03d-%s", i,
+        paramFile.getName().replace(".params", ".log")));
+      exitCodes.put(paramFile, executor.submit(new Callable<Integer>() {
+        @Override
+        public Integer call() throws IOException, InterruptedException {
+          System.out.println("Start " + paramFile + ", log: " + log);
+          final Process p =
+            createWorker(paramFile, threadsPerRun, workerHeap)
+            .redirectErrorStream(true)
+            .redirectOutput(log)
+            .start();
+          final int exitCode = p.waitFor();
+          System.out.println("Done " + paramFile + " (" + exitCode + ")");
+          return exitCode;
+        }
+      }));
+    }
+    executor.shutdown();
+
+    final List<File> failed = new ArrayList<>();
+    for (final Map.Entry<File, Future<Integer>> entry : exitCodes.entrySet()) {
+      try {
+        if (entry.getValue().get() != 0) {
+          failed.add(entry.getKey());
+        }
+      } catch (InterruptedException | ExecutionException e) {
+        throw new IllegalStateException(e);
+      }
+    }
+    checkState(failed.isEmpty(), "Failed evolutions: %s", failed);
   }
 
+  static ProcessBuilder createWorker(File paramFile, int threads,
+      @Nullable String heap) {
+    final List<String> command = new ArrayList<>();
+    command.add(Paths.get(System.getProperty("java.home"), "bin", "java")
+      .toString());
+    if (heap != null) {
+      command.add("-Xmx" + heap);
+    }
+    command.add("-cp");
+    command.add(classPath());
+    command.add(Train.class.getName());
+    command.add("--worker-threads");
+    command.add(Integer.toString(threads));
+    command.add(paramFile.getPath());
+    return new ProcessBuilder(command);
+  }
+
+  // when started via 'mvn exec:java' the project classpath is only known by
+  // the class loader, not by the java.class.path property
+  static String classPath() {
+    final ClassLoader cl = Train.class.getClassLoader();
+    if (!(cl instanceof URLClassLoader)) {
+      return System.getProperty("java.class.path");
+    }
+    final List<String> entries = new ArrayList<>();
+    for (final URL url : ((URLClassLoader) cl).getURLs()) {
+      try {
+        entries.add(new File(url.toURI()).getPath());
+      } catch (URISyntaxException e) {
+        throw new IllegalStateException(e);
+      }
+    }
+    return Joiner.on(File.pathSeparator).join(entries);
+  }
 }
@@ -0,0 +1,215 @@
+/*
+ * Copyright (C) 2011-2016 Rinde van Lon, iMinds-DistriNet, KU Leuven
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.rinde.gpem17.eval;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.CompilationMXBean;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Path;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.github.rinde.gpem17.GPEM17;
+import com.github.rinde.gpem17.eval.Evaluate.ScenarioConverter;
+import com.github.rinde.rinsim.core.model.DependencyProvider;
+import com.github.rinde.rinsim.core.model.Model.AbstractModelVoid;
+import com.github.rinde.rinsim.core.model.ModelBuilder.AbstractModelBuilder;
+import com.github.rinde.rinsim.core.model.time.ClockController;
+import com.github.rinde.rinsim.core.model.time.TickListener;
+import com.github.rinde.rinsim.core.model.time.TimeLapse;
+import com.github.rinde.rinsim.experiment.Experiment;
+import com.github.rinde.rinsim.experiment.MASConfiguration;
+import com.github.rinde.rinsim.experiment.PostProcessor.FailureStrategy;
+import com.github.rinde.rinsim.scenario.Scenario;
+import com.google.auto.value.AutoValue;
+import com.google.common.base.Charsets;
+import com.google.common.io.Files;
+
+/**
+ * Warms up the JVM before a realtime experiment by repeatedly simulating a
+ * scenario in real time with a small subset of the configurations of the
+ * experiment, such that the realtime clock, the auctions and the route
+ * planners are compiled before the first simulation of the experiment starts.
+ * Every round performs exactly the same simulations, a round ends when the
+ * simulations are finished or when {@link #MAX_ROUND_DURATION_MS} has passed.
+ * The throughput of a round is the number of ticks that the simulations
+ * completed per second, unlike the duration it is also meaningful for rounds
+ * that are stopped at their deadline. The warmup ends when the JIT compiler is
+ * almost idle during a round and the throughput is stable, or when
+ * {@link #MAX_DURATION_MS} has passed, the running simulations are then
+ * stopped. This replaces a fixed
+ * warmup period which is too long on fast machines and may be too short on
+ * slow ones.
+ * @author Rinde van Lon
+ */
+final class AdaptiveWarmup {
+  static final long MAX_DURATION_MS = 30000L;
+  static final long MAX_ROUND_DURATION_MS = 10000L;
+  static final int MIN_ROUNDS = 2;
+  // the maximum share of the duration of a round that is spent compiling
+  static final double MAX_COMPILATION_SHARE = .05;
+  // the maximum relative difference of the throughput of consecutive rounds
+  static final double MAX_THROUGHPUT_CHANGE = .1;
+
+  private AdaptiveWarmup() {}
+
+  /**
+   * Performs the warmup, the outcome is written to the report file.
+   * @param configs The realtime configurations to warm up, a small subset of
+   *          the configurations of the experiment.
+   * @param scenarioFile The scenario to simulate.
+   * @param report The report file.
+   * @return <code>true</code> if the warmup ended because the JVM was warm,
+   *         <code>false</code> if the maximum duration has passed.
+   */
+  static boolean run(Iterable<MASConfiguration> configs, Path scenarioFile,
+      File report) {
+    final Scenario scenario =
+      new ScenarioReader(ScenarioConverter.TO_ONLINE_REALTIME_250)
+        .apply(scenarioFile);
+    final CompilationMXBean jit = ManagementFactory.getCompilationMXBean();
+    final boolean measureJit =
+      jit != null && jit.isCompilationTimeMonitoringSupported();
+
+    final StringBuilder sb = new StringBuilder();
+    sb.append("round,duration_ms,ticks,ticks_per_s,compilation_ms,stopped")
+      .append(System.lineSeparator());
+    final long start = System.currentTimeMillis();
+    final long end = start + MAX_DURATION_MS;
+    double previousThroughput = -1d;
+    boolean stable = false;
+    int round = 0;
+    while (!stable && System.currentTimeMillis() < end) {
+      final long compilationBefore =
+        measureJit ? jit.getTotalCompilationTime() : 0L;
+      final long roundStart = System.currentTimeMillis();
+      final long deadline =
+        Math.min(end, roundStart + MAX_ROUND_DURATION_MS);
+      final long ticks = simulate(configs, scenario, deadline);
+      final long duration = System.currentTimeMillis() - roundStart;
+      final long compilation =
+        measureJit ? jit.getTotalCompilationTime() - compilationBefore : 0L;
+      final boolean stopped = System.currentTimeMillis() >= deadline;
+      final double throughput = ticks * 1000d / Math.max(1L, duration);
+      round++;
+      sb.append(round).append(',').append(duration).append(',')
+        .append(ticks).append(',').append(throughput).append(',')
+        .append(compilation).append(',').append(stopped)
+        .append(System.lineSeparator());
+
+      stable = round >= MIN_ROUNDS
+        && compilation <= MAX_COMPILATION_SHARE * duration
+        && Math.abs(throughput - previousThroughput)
+          <= MAX_THROUGHPUT_CHANGE * previousThroughput;
+      previousThroughput = throughput;
+    }
+    final long total = System.currentTimeMillis() - start;
+    sb.append("# ")
+      .append(stable ? "stable" : "stopped at the maximum duration")
+      .append(" after ").append(round).append(" rounds in ").append(total)
+      .append(" ms, scenario: ").append(scenarioFile.getFileName())
+      .append(", jit monitoring: ").append(measureJit)
+      .append(System.lineSeparator());
+    try {
+      Files.write(sb, report, Charsets.UTF_8);
+    } catch (final IOException e) {
+      throw new IllegalStateException(e);
+    }
+    System.out.println("Warmup " + (stable ? "stable" : "stopped") + " after "
+      + round + " rounds (" + total / 1000d + "s).");
+    return stable;
+  }
+
+  // simulates the scenario once for every configuration using the same seed,
+  // the simulations are stopped at the deadline, returns the number of ticks
+  // of all simulations
+  static long simulate(Iterable<MASConfiguration> configs, Scenario scenario,
+      long deadline) {
+    final AtomicLong ticks = new AtomicLong();
+    final Experiment.Builder exp = Experiment.builder()
+      .addScenario(scenario)
+      .showGui(false)
+      .usePostProcessor(new GpemPostProcessor(GPEM17.OBJ_FUNC,
+        FailureStrategy.INCLUDE, false))
+      .computeLocal()
+      .withThreads(RealtimeSlots.numSlots())
+      .withRandomSeed(123)
+      .repeat(1);
+    for (final MASConfiguration config : configs) {
+      exp.addConfiguration(MASConfiguration.builder(config)
+        .addModel(Deadline.builder(deadline, ticks))
+        .build());
+    }
+    exp.perform();
+    return ticks.get();
+  }
+
+  /**
+   * Stops the simulation when the wall clock passes the deadline and counts
+   * the completed ticks.
+   * @author Rinde van Lon
+   */
+  static final class Deadline extends AbstractModelVoid
+      implements TickListener {
+    final ClockController clock;
+    final long deadline;
+    final AtomicLong ticks;
+
+    Deadline(ClockController c, long d, AtomicLong t) {
+      clock = c;
+      deadline = d;
+      ticks = t;
+    }
+
+    @Override
+    public void tick(TimeLapse timeLapse) {
+      if (System.currentTimeMillis() >= deadline) {
+        clock.stop();
+      }
+    }
+
+    @Override
+    public void afterTick(TimeLapse timeLapse) {
+      ticks.incrementAndGet();
+    }
+
+    static Builder builder(long deadline, AtomicLong ticks) {
+      return new AutoValue_AdaptiveWarmup_Deadline_Builder(deadline, ticks);
+    }
+
+    @AutoValue
+    abstract static class Builder
+        extends AbstractModelBuilder<Deadline, Void> {
+      private static final long serialVersionUID = 2319807409173456682L;
+
+      Builder() {
+        setDependencies(ClockController.class);
+      }
+
+      // the wall clock time in ms
+      abstract long getDeadline();
+
+      // shared by the simulations of a round
+      abstract AtomicLong getTicks();
+
+      @Override
+      public Deadline build(DependencyProvider dependencyProvider) {
+        return new Deadline(dependencyProvider.get(ClockController.class),
+          getDeadline(), getTicks());
+      }
+    }
+  }
+}
@@ -0,0 +1,510 @@
+/*
+ * Copyright (C) 2011-2016 Rinde van Lon, iMinds-DistriNet, KU Leuven
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.rinde.gpem17.eval;
+
+import static com.google.common.base.Preconditions.checkState;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Map.Entry;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.zip.DeflaterOutputStream;
+import java.util.zip.InflaterInputStream;
+
+import javax.annotation.Nullable;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.google.common.collect.Maps;
+import com.google.common.io.ByteStreams;
+import com.google.common.primitives.Ints;
+
+/**
+ * Distributes {@link SimTask}s over {@link Worker}s that are connected via
+ * TCP, this is a self-contained alternative for computing experiments with
+ * JPPF. Workers pull tasks, a worker that closes its connection or that does
+ * not send a heartbeat in time is considered lost and its tasks are given to
+ * other workers. Tasks refer to scenarios by hash, a worker requests the
+ * contents of a scenario only when it does not have the scenario yet.
+ * <p>
+ * The results are not returned directly, workers send the records that their
+ * simulations added to their {@link ResultStore} which are added to the store
+ * of the coordinator. A subsequent local {@link Evaluate#execute} with that
+ * store finds all results without simulating, simulations of tasks that could
+ * not be computed remotely are computed locally.
+ * <p>
+ * Messages to a worker are queued and written by a separate thread per
+ * connection, such that a slow or stalled worker never blocks the coordinator
+ * while it holds its lock.
+ * @author Rinde van Lon
+ */
+public final class Coordinator implements Closeable {
+  static final Logger LOGGER = LoggerFactory.getLogger(Coordinator.class);
+  static final long HEARTBEAT_INTERVAL = 5000L;
+  static final int DEFAULT_HEARTBEAT_TIMEOUT = 30000;
+
+  final ServerSocket serverSocket;
+  final int heartbeatTimeout;
+  final List<Connection> connections;
+  // contains a connection once for every outstanding request
+  final Deque<Connection> requests;
+  final Deque<Integer> queue;
+  // the encoded tasks of the current batch that are not yet completed
+  final Map<Integer, byte[]> tasks;
+  // the scenarios of the current batch: hash to SCENARIO message payload
+  final Map<String, byte[]> scenarios;
+  @Nullable
+  ResultStore store;
+  // the number of tasks of the current batch that failed on a worker
+  int failed;
+  int nextId;
+  boolean closed;
+
+  Coordinator(ServerSocket socket, int timeout) {
+    serverSocket = socket;
+    heartbeatTimeout = timeout;
+    connections = new ArrayList<>();
+    requests = new ArrayDeque<>();
+    queue = new ArrayDeque<>();
+    tasks = new LinkedHashMap<>();
+    scenarios = new HashMap<>();
+    final Thread acceptor = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        accept();
+      }
+    }, "coordinator-accept");
+    acceptor.setDaemon(true);
+    acceptor.start();
+  }
+
+  /**
+   * Starts a coordinator that accepts workers on the specified port.
+   * @param port The port, 0 means any free port.
+   * @return The coordinator.
+   */
+  public static Coordinator start(int port) {
+    try {
+      final ServerSocket socket = new ServerSocket();
+      // the port can be reused directly after a previous coordinator is
+      // closed, e.g. by the next evolution in the same JVM
+      socket.setReuseAddress(true);
+      socket.bind(new InetSocketAddress(port));
+      return new Coordinator(socket, DEFAULT_HEARTBEAT_TIMEOUT);
+    } catch (final IOException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  /**
+   * @return The port on which workers are accepted.
+   */
+  public int getPort() {
+    return serverSocket.getLocalPort();
+  }
+
+  /**
+   * @return The number of connected workers.
+   */
+  public synchronized int getNumWorkers() {
+    return connections.size();
+  }
+
+  /**
+   * Computes the tasks on the connected workers, blocks until all tasks are
+   * completed or until there are no workers left.
+   * @param simTasks The tasks.
+   * @param scenarioFiles The contents of the scenario files of the tasks,
+   *          indexed by their hash, see {@link SimTask#getScenarioHash()}.
+   * @param resultStore The store to which the results are added.
+   * @return The number of tasks that were completed by workers, tasks that
+   *         failed on a worker are not included.
+   */
+  public synchronized int execute(Collection<SimTask> simTasks,
+      Map<String, byte[]> scenarioFiles, ResultStore resultStore) {
+    checkState(!closed, "The coordinator is closed.");
+    store = resultStore;
+    failed = 0;
+    for (final Entry<String, byte[]> entry : scenarioFiles.entrySet()) {
+      scenarios.put(entry.getKey(), scenarioPayload(entry.getValue()));
+    }
+    for (final SimTask task : simTasks) {
+      final int id = nextId++;
+      tasks.put(id, encode(task));
+      queue.add(id);
+    }
+    dispatch();
+    try {
+      while (!tasks.isEmpty() && !connections.isEmpty() && !closed) {
+        wait();
+      }
+    } catch (final InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    if (!tasks.isEmpty()) {
+      LOGGER.warn("{} of {} tasks were not computed by workers.",
+        tasks.size(), simTasks.size());
+    }
+    if (failed > 0) {
+      LOGGER.warn("{} of {} tasks failed on workers.", failed,
+        simTasks.size());
+    }
+    final int completed = simTasks.size() - tasks.size() - failed;
+    tasks.clear();
+    queue.clear();
+    scenarios.clear();
+    store = null;
+    return completed;
+  }
+
+  @Override
+  public void close() {
+    final List<Connection> conns;
+    synchronized (this) {
+      closed = true;
+      conns = new ArrayList<>(connections);
+      notifyAll();
+    }
+    try {
+      serverSocket.close();
+    } catch (final IOException e) {
+      throw new IllegalStateException(e);
+    }
+    for (final Connection c : conns) {
+      c.close();
+    }
+  }
+
+  void accept() {
+    while (!serverSocket.isClosed()) {
+      final Socket socket;
+      try {
+        socket = serverSocket.accept();
+      } catch (final IOException e) {
+        // the server socket is closed
+        return;
+      }
+      final Connection c;
+      try {
+        c = new Connection(socket);
+      } catch (final IOException e) {
+        LOGGER.warn("Failed to accept worker {}.", socket, e);
+        continue;
+      }
+      synchronized (this) {
+        if (closed) {
+          c.close();
+          return;
+        }
+        connections.add(c);
+      }
+      c.start();
+    }
+  }
+
+  // should be called while holding the lock, does not block as the tasks are
+  // only queued for sending
+  void dispatch() {
+    while (!queue.isEmpty() && !requests.isEmpty()) {
+      final Connection c = requests.poll();
+      final int id = queue.poll();
+      c.inFlight.add(id);
+      final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+      try (DataOutputStream out = new DataOutputStream(bytes)) {
+        out.writeInt(id);
+        out.write(tasks.get(id));
+      } catch (final IOException e) {
+        throw new IllegalStateException(e);
+      }
+      c.send(MessageType.TASK, bytes.toByteArray());
+    }
+  }
+
+  synchronized void request(Connection c) {
+    requests.add(c);
+    dispatch();
+  }
+
+  synchronized void complete(Connection c, int id, @Nullable byte[] records) {
+    c.inFlight.remove(id);
+    if (tasks.remove(id) != null) {
+      if (records == null) {
+        failed++;
+      } else if (store != null) {
+        store.putRecords(records);
+      }
+      notifyAll();
+    }
+  }
+
+  synchronized byte[] scenario(String hash) {
+    final byte[] payload = scenarios.get(hash);
+    if (payload == null) {
+      // the batch is finished
+      return Ints.toByteArray(-1);
+    }
+    return payload;
+  }
+
+  synchronized void lost(Connection c) {
+    if (!connections.remove(c)) {
+      return;
+    }
+    if (!closed) {
+      LOGGER.warn("Lost worker {}, it had {} tasks in flight.", c.name,
+        c.inFlight.size());
+    }
+    while (requests.remove(c)) {}
+    for (final int id : c.inFlight) {
+      if (tasks.containsKey(id)) {
+        queue.addFirst(id);
+      }
+    }
+    c.inFlight.clear();
+    dispatch();
+    notifyAll();
+  }
+
+  static byte[] encode(SimTask task) {
+    final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    try (DataOutputStream out = new DataOutputStream(bytes)) {
+      task.writeTo(out);
+    } catch (final IOException e) {
+      throw new IllegalStateException(e);
+    }
+    return bytes.toByteArray();
+  }
+
+  // scenario files are json, they compress well
+  static byte[] scenarioPayload(byte[] contents) {
+    final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    try (DataOutputStream out = new DataOutputStream(bytes)) {
+      out.writeInt(contents.length);
+      try (DeflaterOutputStream def = new DeflaterOutputStream(out)) {
+        def.write(contents);
+      }
+    } catch (final IOException e) {
+      throw new IllegalStateException(e);
+    }
+    return bytes.toByteArray();
+  }
+
+  // returns null if the coordinator does not have the scenario
+  @Nullable
+  static byte[] readScenarioPayload(byte[] payload) throws IOException {
+    final DataInputStream in =
+      new DataInputStream(new ByteArrayInputStream(payload));
+    final int length = in.readInt();
+    if (length < 0) {
+      return null;
+    }
+    final byte[] contents = new byte[length];
+    try (InflaterInputStream inf = new InflaterInputStream(in)) {
+      ByteStreams.readFully(inf, contents);
+    }
+    return contents;
+  }
+
+  // a message is a type byte followed by the length of the payload and the
+  // payload
+  static void write(DataOutputStream out, MessageType type, byte[] payload)
+      throws IOException {
+    out.writeByte(type.ordinal());
+    out.writeInt(payload.length);
+    out.write(payload);
+    out.flush();
+  }
+
+  static MessageType readType(DataInputStream in) throws IOException {
+    return MessageType.values()[in.readUnsignedByte()];
+  }
+
+  static byte[] readPayload(DataInputStream in) throws IOException {
+    final byte[] payload = new byte[in.readInt()];
+    in.readFully(payload);
+    return payload;
+  }
+
+  enum MessageType {
+    /**
+     * Worker to coordinator: the name of the worker.
+     */
+    HELLO,
+    /**
+     * Worker to coordinator: request for one task.
+     */
+    REQUEST,
+    /**
+     * Coordinator to worker: task id and encoded task.
+     */
+    TASK,
+    /**
+     * Worker to coordinator: task id and result store records.
+     */
+    RESULT,
+    /**
+     * Worker to coordinator: task id and error message.
+     */
+    FAILED,
+    /**
+     * Worker to coordinator: empty.
+     */
+    HEARTBEAT,
+    /**
+     * Worker to coordinator: hash of a scenario the worker does not have.
+     */
+    SCENARIO_REQUEST,
+    /**
+     * Coordinator to worker: uncompressed length (-1 if unknown) and deflated
+     * contents of the requested scenario.
+     */
+    SCENARIO;
+  }
+
+  class Connection implements Runnable {
+    final Socket socket;
+    final DataInputStream in;
+    final DataOutputStream out;
+    final Set<Integer> inFlight;
+    // the messages that are not yet written, a message is a type and payload
+    final BlockingQueue<Entry<MessageType, byte[]>> outbox;
+    final Thread writer;
+    String name;
+
+    Connection(Socket s) throws IOException {
+      socket = s;
+      socket.setSoTimeout(heartbeatTimeout);
+      socket.setTcpNoDelay(true);
+      in = new DataInputStream(
+        new BufferedInputStream(socket.getInputStream()));
+      out = new DataOutputStream(
+        new BufferedOutputStream(socket.getOutputStream()));
+      inFlight = new LinkedHashSet<>();
+      outbox = new LinkedBlockingQueue<>();
+      name = socket.toString();
+      writer = new Thread(new Runnable() {
+        @Override
+        public void run() {
+          writeMessages();
+        }
+      }, "coordinator-writer-" + socket);
+      writer.setDaemon(true);
+    }
+
+    // starts the reader and the writer thread
+    void start() {
+      final Thread reader = new Thread(this, "coordinator-" + socket);
+      reader.setDaemon(true);
+      reader.start();
+      writer.start();
+    }
+
+    @Override
+    public void run() {
+      try {
+        while (true) {
+          final MessageType type = readType(in);
+          final DataInputStream payload = new DataInputStream(
+            new ByteArrayInputStream(readPayload(in)));
+          switch (type) {
+          case HELLO:
+            name = payload.readUTF() + " (" + socket.getRemoteSocketAddress()
+              + ")";
+            LOGGER.info("Worker {} connected.", name);
+            break;
+          case REQUEST:
+            request(this);
+            break;
+          case RESULT:
+            final int id = payload.readInt();
+            final byte[] records = new byte[payload.available()];
+            payload.readFully(records);
+            complete(this, id, records);
+            break;
+          case FAILED:
+            final int failed = payload.readInt();
+            LOGGER.warn("Task {} failed on worker {}: {}", failed, name,
+              payload.readUTF());
+            complete(this, failed, null);
+            break;
+          case HEARTBEAT:
+            break;
+          case SCENARIO_REQUEST:
+            send(MessageType.SCENARIO, scenario(payload.readUTF()));
+            break;
+          default:
+            throw new IOException("Unexpected message: " + type);
+          }
+        }
+      } catch (final IOException e) {
+        LOGGER.debug("Connection with {} failed.", name, e);
+      } finally {
+        close();
+        lost(this);
+      }
+    }
+
+    void send(MessageType type, byte[] payload) {
+      outbox.add(Maps.immutableEntry(type, payload));
+    }
+
+    // if writing fails the socket is closed, the reader thread then notices
+    // that the connection is lost
+    void writeMessages() {
+      try {
+        while (true) {
+          final Entry<MessageType, byte[]> message = outbox.take();
+          write(out, message.getKey(), message.getValue());
+        }
+      } catch (final IOException e) {
+        LOGGER.debug("Failed writing to {}.", name, e);
+        close();
+      } catch (final InterruptedException e) {
+        // the connection is closed
+      }
+    }
+
+    void close() {
+      writer.interrupt();
+      try {
+        socket.close();
+      } catch (final IOException e) {
+        LOGGER.debug("Failed closing {}.", name, e);
+      }
+    }
+  }
+}
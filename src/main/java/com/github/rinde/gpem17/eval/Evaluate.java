@@ -21,6 +21,7 @@ import static com.google.common.base.Verify.verifyNotNull;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.Collection;
@@ -38,9 +39,13 @@ import com.github.rinde.ecj.GPFunc;
 import com.github.rinde.ecj.GPProgram;
 import com.github.rinde.ecj.GPProgramParser;
 import com.github.rinde.evo4mas.common.GpGlobal;
+import com.github.rinde.gpem17.AdaptiveSolverBudgets;
+import com.github.rinde.gpem17.AdaptiveSolverBudgets.Load;
 import com.github.rinde.gpem17.GPEM17;
 import com.github.rinde.gpem17.GPEM17.ReauctOpt;
 import com.github.rinde.gpem17.GPEM17.RpOpt;
+import com.github.rinde.gpem17.SharedOptaPlannerSolvers;
+import com.github.rinde.gpem17.evo.BatchProgram;
 import com.github.rinde.gpem17.evo.FunctionSet;
 import com.github.rinde.logistics.pdptw.mas.TruckFactory.DefaultTruckFactory;
 import com.github.rinde.logistics.pdptw.mas.comm.AuctionCommModel;
@@ -52,9 +57,7 @@ import com.github.rinde.logistics.pdptw.mas.comm.RtSolverBidder.BidFunction;
 import com.github.rinde.logistics.pdptw.mas.comm.RtSolverBidder.BidFunctions;
 import com.github.rinde.logistics.pdptw.mas.route.RoutePlannerStatsLogger;
 import com.github.rinde.logistics.pdptw.mas.route.RtSolverRoutePlanner;
-import com.github.rinde.logistics.pdptw.solver.optaplanner.OptaplannerSolvers;
 import com.github.rinde.rinsim.central.rt.RtSolverModel;
-import com.github.rinde.rinsim.core.model.time.RealtimeClockLogger;
 import com.github.rinde.rinsim.core.model.time.TimeModel;
 import com.github.rinde.rinsim.experiment.CommandLineProgress;
 import com.github.rinde.rinsim.experiment.Experiment;
@@ -67,12 +70,14 @@ import com.github.rinde.rinsim.pdptw.common.AddVehicleEvent;
 import com.github.rinde.rinsim.pdptw.common.ObjectiveFunction;
 import com.github.rinde.rinsim.pdptw.common.RouteFollowingVehicle;
 import com.github.rinde.rinsim.scenario.Scenario;
-import com.github.rinde.rinsim.scenario.ScenarioIO;
 import com.github.rinde.rinsim.scenario.StopConditions;
+import com.github.rinde.rinsim.scenario.TimedEventHandler;
 import com.github.rinde.rinsim.scenario.gendreau06.Gendreau06ObjectiveFunction;
 import com.google.common.base.Charsets;
 import com.google.common.base.Function;
 import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.hash.Hashing;
 import com.google.common.io.Files;
 
 /**
@@ -83,6 +88,10 @@ public class Evaluate {
   static final String DATASET_PATH = "files/vanLonHolvoet15/";
   static final String RT_RESULTS_DIR = "files/results/realtime/";
   static final String ST_RESULTS_DIR = "files/results/simtime/";
+  /**
+   * Default location of the {@link ResultStore}.
+   */
+  public static final String RESULT_STORE_DIR = "files/results/store/";
 
   public static void main(String[] args) {
     System.out.println(System.getProperty("java.vm.name") + ", "
@@ -176,12 +185,14 @@ public class Evaluate {
       realtime ? null : ScenarioConverter.TO_ONLINE_SIMULATED_250;
     execute(programs, realtime, files, resDir, true, conv, true, reauctOpt,
       objectiveFunction, rpOpt, enableTimeMeasurements, useOptaPlannerMAS,
-      heuristicCompDelay,
+      heuristicCompDelay, new File(RESULT_STORE_DIR),
       expArgs);
 
   }
 
   // objFunc is only used at runtime, not for analysis
+  // resultStoreDir is only used for simulated time without time measurements,
+  // results of previously computed simulations are taken from the store
   public static ExperimentResults execute(
       Iterable<GPProgram<GpGlobal>> programs,
       boolean realtime,
@@ -196,6 +207,7 @@ public class Evaluate {
       boolean enableTimeMeasurements,
       boolean addOptaPlannerMAS,
       long heuristicComputationDelay,
+      @Nullable File resultStoreDir,
       String... expArgs) {
     checkArgument(realtime ^ scenarioConverter != null);
     final long startTime = System.currentTimeMillis();
@@ -235,22 +247,38 @@ public class Evaluate {
     }
     if (realtime) {
       exp.setScenarioReader(
-        ScenarioIO.readerAdapter(ScenarioConverter.TO_ONLINE_REALTIME_250))
-        .withWarmup(30000)
+        new ScenarioReader(ScenarioConverter.TO_ONLINE_REALTIME_250))
         .addResultListener(new CommandLineProgress(System.out))
-        .withThreads((int) Math
-          .floor((Runtime.getRuntime().availableProcessors() - 1) / 2d));
+        .addResultListener(new SlotTimingLogger(resDir))
+        .withThreads(RealtimeSlots.numSlots());
     } else if (scenarioConverter == null) {
       exp.setScenarioReader(
-        ScenarioIO.readerAdapter(ScenarioConverter.TO_ONLINE_SIMULATED_250))
+        new ScenarioReader(ScenarioConverter.TO_ONLINE_SIMULATED_250))
         .addResultListener(new CommandLineProgress(System.out));
     } else {
       exp.setScenarioReader(
-        ScenarioIO.readerAdapter(scenarioConverter));
+        new ScenarioReader(scenarioConverter));
     }
 
+    // a subset of the realtime configurations of the experiment: the first
+    // program and the OptaPlanner MAS
+    final List<MASConfiguration> warmupConfigs = new ArrayList<>();
     if (addOptaPlannerMAS) {
-      exp.addConfiguration(createOptaPlanner(enableTimeMeasurements));
+      final MASConfiguration optaPlanner =
+        createOptaPlanner(enableTimeMeasurements);
+      warmupConfigs.add(optaPlanner);
+      exp.addConfiguration(governed(optaPlanner));
+    }
+
+    final boolean useStore =
+      resultStoreDir != null && !realtime && !enableTimeMeasurements;
+    ImmutableMap<String, String> scenarioHashes = ImmutableMap.of();
+    String converterId = "";
+    if (useStore) {
+      scenarioHashes = hashScenarios(scenarioFiles);
+      final Function<Scenario, Scenario> conv = scenarioConverter == null
+        ? ScenarioConverter.TO_ONLINE_SIMULATED_250 : scenarioConverter;
+      converterId = ScenarioReader.converterId(conv);
     }
 
     int counter = 0;
@@ -263,13 +291,27 @@ public class Evaluate {
         .append(System.lineSeparator());
 
       if (realtime) {
-        exp.addConfiguration(
+        final MASConfiguration config =
           GPEM17.createRtConfig(prog, progId, reauctOpt, objFuncUsedAtRuntime,
-            routePlanner, enableTimeMeasurements, heuristicComputationDelay));
+            routePlanner, enableTimeMeasurements, heuristicComputationDelay);
+        if (counter == 1) {
+          warmupConfigs.add(config);
+        }
+        exp.addConfiguration(governed(config));
+      } else if (useStore) {
+        final String keyPrefix = stKeyPrefix(prog, reauctOpt,
+          objFuncUsedAtRuntime, converterId);
+        exp.addConfiguration(MASConfiguration.builder(
+          GPEM17.createStConfig(prog, progId, reauctOpt, objFuncUsedAtRuntime,
+            enableTimeMeasurements))
+          .addModel(StoredResultLookup.builder(resultStoreDir, keyPrefix,
+            scenarioHashes))
+          .addModel(HeapGovernor.builder())
+          .build());
       } else {
-        exp.addConfiguration(
+        exp.addConfiguration(governed(
           GPEM17.createStConfig(prog, progId, reauctOpt, objFuncUsedAtRuntime,
-            enableTimeMeasurements));
+            enableTimeMeasurements)));
       }
     }
 
@@ -280,6 +322,14 @@ public class Evaluate {
       throw new IllegalStateException(e);
     }
 
+    if (realtime && !warmupConfigs.isEmpty()) {
+      // warms up the realtime configurations until the JIT is idle, the
+      // outcome is reported in warmup.txt
+      AdaptiveWarmup.run(warmupConfigs,
+        scenarioFiles.build().get().iterator().next(),
+        new File(rw.getExperimentDirectory(), "warmup.txt"));
+    }
+
     final Optional<ExperimentResults> results =
       exp.perform(System.out, expArgs);
     final long duration = System.currentTimeMillis() - startTime;
@@ -294,6 +344,40 @@ public class Evaluate {
     return results.get();
   }
 
+  // new simulations of the configuration are delayed when the heap is almost
+  // full, see HeapGovernor
+  static MASConfiguration governed(MASConfiguration config) {
+    return MASConfiguration.builder(config)
+      .addModel(HeapGovernor.builder())
+      .build();
+  }
+
+  // the prefix of the result store keys of a simulated time configuration,
+  // the route planner of st configs is always CIH, equivalent programs share
+  // their results
+  static String stKeyPrefix(GPProgram<GpGlobal> prog, ReauctOpt reauctOpt,
+      Gendreau06ObjectiveFunction objFunc, String converterId) {
+    return ResultStore.keyPrefix("st",
+      BatchProgram.compile(prog).canonicalForm(), reauctOpt.name(),
+      RpOpt.CIH.name(), ResultStore.hashOf(objFunc), converterId);
+  }
+
+  // maps 'problemclass-instanceid' to the hash of the file contents
+  static ImmutableMap<String, String> hashScenarios(
+      FileProvider.Builder scenarioFiles) {
+    final ImmutableMap.Builder<String, String> hashes = ImmutableMap.builder();
+    for (final Path p : scenarioFiles.build().get()) {
+      final String name = p.getFileName().toString().replace(".scen", "");
+      try {
+        hashes.put(name,
+          Files.hash(p.toFile(), Hashing.sha256()).toString());
+      } catch (final IOException e) {
+        throw new IllegalStateException(e);
+      }
+    }
+    return hashes.build();
+  }
+
   /**
    * @param enableTimeMeasurements
    * @return
@@ -305,15 +389,8 @@ public class Evaluate {
     final long rpMs = 100L;
     final long bMs = 20L;
     final long maxAuctionDurationSoft = 10000L;
-    final String masSolverName =
-      "Step-counting-hill-climbing-with-entity-tabu-and-strategic-oscillation";
-
-    OptaplannerSolvers.Builder b = OptaplannerSolvers.builder()
-      .withSolverXmlResource("com/github/rinde/jaamas16/jaamas-solver.xml")
-      .withObjectiveFunction(GPEM17.OBJ_FUNC)
-      .withName(masSolverName);
 
-    return createMAS(b, GPEM17.OBJ_FUNC, rpMs, bMs, maxAuctionDurationSoft,
+    return createMAS(GPEM17.OBJ_FUNC, rpMs, bMs, maxAuctionDurationSoft,
       false, 0L, enableTimeMeasurements);
 
     // MASConfiguration.Builder builder = MASConfiguration.pdptwBuilder()
@@ -360,13 +437,14 @@ public class Evaluate {
     // return builder.build();
   }
 
-  static MASConfiguration createMAS(OptaplannerSolvers.Builder opFfdFactory,
-      ObjectiveFunction objFunc, long rpMs, long bMs,
-      long maxAuctionDurationSoft, boolean enableReauctions,
-      long reauctCooldownPeriodMs, boolean computationsLogging) {
+  // the budgets of the solvers are reduced when the JVM is under load, see
+  // AdaptiveSolverBudgets
+  static MASConfiguration createMAS(final ObjectiveFunction objFunc,
+      final long rpMs, final long bMs, long maxAuctionDurationSoft,
+      final boolean enableReauctions, final long reauctCooldownPeriodMs,
+      final boolean computationsLogging) {
     final BidFunction bf = BidFunctions.BALANCED_HIGH;
-    final String masSolverName =
-      "Step-counting-hill-climbing-with-entity-tabu-and-strategic-oscillation";
+    final String masSolverName = SharedOptaPlannerSolvers.SOLVER_NAME;
 
     final String suffix;
     if (false == enableReauctions) {
@@ -382,25 +460,27 @@ public class Evaluate {
         "ReAuction-FFD-" + masSolverName + "-RP-" + rpMs + "-BID-" + bMs + "-"
           + bf + suffix)
       .addEventHandler(AddVehicleEvent.class,
-        DefaultTruckFactory.builder()
-          .setRoutePlanner(RtSolverRoutePlanner.supplier(
-            opFfdFactory // .withSolverKey(masSolverName)
-              .withUnimprovedMsLimit(rpMs)
-              .withTimeMeasurementsEnabled(computationsLogging)
-              .buildRealtimeSolverSupplier()))
-          .setCommunicator(
-
-            RtSolverBidder.realtimeBuilder(objFunc,
-              opFfdFactory // .withSolverKey(masSolverName)
-                .withUnimprovedMsLimit(bMs)
-                .withTimeMeasurementsEnabled(computationsLogging)
-                .buildRealtimeSolverSupplier())
-              .withBidFunction(bf)
-              .withReauctionsEnabled(enableReauctions)
-              .withReauctionCooldownPeriod(reauctCooldownPeriodMs))
-          .setLazyComputation(false)
-          .setRouteAdjuster(RouteFollowingVehicle.delayAdjuster())
-          .build())
+        new AdaptiveSolverBudgets.VehicleHandler() {
+          private static final long serialVersionUID = 6217094885318502627L;
+
+          @Override
+          protected TimedEventHandler<AddVehicleEvent> create(Load load) {
+            return DefaultTruckFactory.builder()
+              .setRoutePlanner(RtSolverRoutePlanner.supplier(
+                AdaptiveSolverBudgets.supplier(load, objFunc, rpMs,
+                  computationsLogging)))
+              .setCommunicator(
+                RtSolverBidder.realtimeBuilder(objFunc,
+                  AdaptiveSolverBudgets.supplier(load, objFunc, bMs,
+                    computationsLogging))
+                  .withBidFunction(bf)
+                  .withReauctionsEnabled(enableReauctions)
+                  .withReauctionCooldownPeriod(reauctCooldownPeriodMs))
+              .setLazyComputation(false)
+              .setRouteAdjuster(RouteFollowingVehicle.delayAdjuster())
+              .build();
+          }
+        })
       .addModel(AuctionCommModel.builder(DoubleBid.class)
         .withStopCondition(
           AuctionStopConditions.and(
@@ -411,9 +491,9 @@ public class Evaluate {
                 .<DoubleBid>maxAuctionDuration(maxAuctionDurationSoft))))
         .withMaxAuctionDuration(30 * 60 * 1000L))
       .addModel(RtSolverModel.builder()
-        .withThreadPoolSize(3)
+        .withThreadPoolSize(RealtimeSlots.SOLVER_THREADS_PER_SLOT)
         .withThreadGrouping(true))
-      .addModel(RealtimeClockLogger.builder());
+      .addModel(TickLogger.builder().withClockAffinity(true));
 
     if (computationsLogging) {
       b = b.addModel(AuctionTimeStatsLogger.builder())
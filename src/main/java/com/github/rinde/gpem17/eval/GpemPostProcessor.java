@@ -3,7 +3,6 @@ package com.github.rinde.gpem17.eval;
 import static com.google.common.base.Preconditions.checkState;
 
 import java.io.Serializable;
-import java.util.ArrayList;
 
 import javax.annotation.Nullable;
 
@@ -17,9 +16,6 @@ import com.github.rinde.logistics.pdptw.mas.comm.AuctionCommModel.AuctionEvent;
 import com.github.rinde.logistics.pdptw.mas.comm.Bidder;
 import com.github.rinde.rinsim.central.SolverTimeMeasurement;
 import com.github.rinde.rinsim.core.Simulator;
-import com.github.rinde.rinsim.core.model.time.RealtimeClockLogger;
-import com.github.rinde.rinsim.core.model.time.RealtimeClockLogger.LogEntry;
-import com.github.rinde.rinsim.core.model.time.RealtimeTickInfo;
 import com.github.rinde.rinsim.experiment.Experiment.SimArgs;
 import com.github.rinde.rinsim.experiment.PostProcessor;
 import com.github.rinde.rinsim.pdptw.common.ObjectiveFunction;
@@ -47,6 +43,32 @@ class GpemPostProcessor
 
   @Override
   public SimResult collectResults(Simulator sim, SimArgs args) {
+    release(sim);
+    @Nullable
+    final StoredResultLookup lookup =
+      sim.getModelProvider().tryGetModel(StoredResultLookup.class);
+    if (lookup != null && lookup.getStoredResult().isPresent()) {
+      LOGGER.info("stored: {}", args);
+      return lookup.getStoredResult().get();
+    }
+    final SimResult result = collect(sim, args);
+    if (lookup != null) {
+      lookup.store(result);
+    }
+    return result;
+  }
+
+  // the simulation has finished, another simulation may start
+  static void release(Simulator sim) {
+    @Nullable
+    final HeapGovernor governor =
+      sim.getModelProvider().tryGetModel(HeapGovernor.class);
+    if (governor != null) {
+      governor.release();
+    }
+  }
+
+  SimResult collect(Simulator sim, SimArgs args) {
     // sim stats should always be present
     final StatisticsDTO stats =
       sim.getModelProvider().getModel(StatsTracker.class).getStatistics();
@@ -89,27 +111,24 @@ class GpemPostProcessor
     }
 
     @Nullable
-    final RealtimeClockLogger logger =
-      sim.getModelProvider().tryGetModel(RealtimeClockLogger.class);
+    final TickLogger logger =
+      sim.getModelProvider().tryGetModel(TickLogger.class);
     if (logger == null) {
-      return SimResult.create(new ArrayList<LogEntry>(),
-        0,
-        sim.getCurrentTime() / sim.getTimeStep(),
-        stats,
-        ImmutableList.<RealtimeTickInfo>of(),
+      return SimResult.create(stats,
+        TickLog.empty(0, sim.getCurrentTime() / sim.getTimeStep(), -1),
         aStats,
         finishEvents,
         timeMeasurements);
     }
 
-    return SimResult.create(logger.getLog(), logger.getRtCount(),
-      logger.getStCount(), stats, logger.getTickInfoList(), aStats,
-      finishEvents, timeMeasurements);
+    return SimResult.create(stats, logger.getTickLog(), aStats, finishEvents,
+      timeMeasurements);
   }
 
   @Override
   public FailureStrategy handleFailure(Exception e, Simulator sim,
       SimArgs args) {
+    release(sim);
 
     if (reportErrs) {
       System.out.println("Fail: " + args);
@@ -0,0 +1,205 @@
+/*
+ * Copyright (C) 2011-2016 Rinde van Lon, iMinds-DistriNet, KU Leuven
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.rinde.gpem17.eval;
+
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.MemoryUsage;
+import java.lang.ref.Reference;
+import java.lang.ref.ReferenceQueue;
+import java.lang.ref.WeakReference;
+import java.util.HashSet;
+import java.util.Set;
+
+import javax.management.Notification;
+import javax.management.NotificationEmitter;
+import javax.management.NotificationListener;
+
+import com.github.rinde.rinsim.core.model.DependencyProvider;
+import com.github.rinde.rinsim.core.model.Model.AbstractModelVoid;
+import com.github.rinde.rinsim.core.model.ModelBuilder.AbstractModelBuilder;
+import com.google.auto.value.AutoValue;
+
+/**
+ * Limits the number of simulations that are in progress in this JVM when the
+ * heap is almost full. A simulation obtains a permit when this model is
+ * created and returns it when its results are collected by
+ * {@link GpemPostProcessor}. As long as the usage of the tenured generation
+ * after the last garbage collection is above {@link #MAX_HEAP_USAGE}, new
+ * simulations wait until a running simulation is finished or a garbage
+ * collection freed enough memory, such that the number of concurrent
+ * simulations decreases instead of running out of memory. At least one
+ * simulation can always proceed and no simulation waits longer than
+ * {@link #MAX_WAIT_MS}.
+ * <p>
+ * When the construction of a simulation fails after this model is created,
+ * its results are never collected. The permit of such a simulation is
+ * returned when its governor is garbage collected. When the heap is under
+ * pressure the scenarios that are cached by {@link ScenarioReader} are
+ * dropped, they are softly reachable and would otherwise only be collected
+ * just before running out of memory.
+ * @author Rinde van Lon
+ */
+public final class HeapGovernor extends AbstractModelVoid {
+  static final double MAX_HEAP_USAGE = .85;
+  static final long MAX_WAIT_MS = 60000L;
+  static final long POLL_MS = 1000L;
+
+  static final Object LOCK = new Object();
+  // the governors that are garbage collected
+  static final ReferenceQueue<HeapGovernor> COLLECTED = new ReferenceQueue<>();
+  // guarded by LOCK, the permits that are not returned
+  static final Set<Reference<HeapGovernor>> PERMITS = new HashSet<>();
+  static boolean throttling;
+  static boolean listening;
+
+  final Reference<HeapGovernor> permit;
+
+  HeapGovernor() {
+    permit = new WeakReference<>(this, COLLECTED);
+  }
+
+  // blocks while the heap is under pressure and other simulations are running
+  static HeapGovernor acquire() {
+    listenToCollections();
+    synchronized (LOCK) {
+      final long deadline = System.currentTimeMillis() + MAX_WAIT_MS;
+      long remaining = MAX_WAIT_MS;
+      while (inFlight() > 0 && remaining > 0 && underPressure()) {
+        if (!throttling) {
+          throttling = true;
+          ScenarioReader.SCENARIOS.invalidateAll();
+          System.out.println("Heap usage is above " + MAX_HEAP_USAGE * 100
+            + "%, new simulations wait for " + inFlight()
+            + " running simulations.");
+        }
+        try {
+          LOCK.wait(Math.min(remaining, POLL_MS));
+        } catch (final InterruptedException e) {
+          Thread.currentThread().interrupt();
+          break;
+        }
+        remaining = deadline - System.currentTimeMillis();
+      }
+      if (throttling && !underPressure()) {
+        throttling = false;
+        System.out.println("Heap usage is below " + MAX_HEAP_USAGE * 100
+          + "%, simulations are no longer delayed.");
+      }
+      final HeapGovernor governor = new HeapGovernor();
+      PERMITS.add(governor.permit);
+      return governor;
+    }
+  }
+
+  /**
+   * Returns the permit of the simulation, can be called multiple times.
+   */
+  void release() {
+    synchronized (LOCK) {
+      if (PERMITS.remove(permit)) {
+        LOCK.notifyAll();
+      }
+    }
+  }
+
+  // the number of permits that are not returned, the permits of collected
+  // governors are returned first
+  static int inFlight() {
+    synchronized (LOCK) {
+      Reference<? extends HeapGovernor> ref;
+      while ((ref = COLLECTED.poll()) != null) {
+        PERMITS.remove(ref);
+      }
+      return PERMITS.size();
+    }
+  }
+
+  /**
+   * @return <code>true</code> if a tenured heap pool was fuller than
+   *         {@link #MAX_HEAP_USAGE} after the last garbage collection.
+   */
+  static boolean underPressure() {
+    for (final MemoryPoolMXBean pool : ManagementFactory
+      .getMemoryPoolMXBeans()) {
+      if (!isTenured(pool) || !pool.isCollectionUsageThresholdSupported()) {
+        continue;
+      }
+      final MemoryUsage afterGc = pool.getCollectionUsage();
+      final long max = pool.getUsage().getMax();
+      if (afterGc != null && max > 0
+        && afterGc.getUsed() > MAX_HEAP_USAGE * max) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  // the eden and survivor pools are always (almost) full after they are
+  // collected, only the tenured pools support a usage threshold
+  static boolean isTenured(MemoryPoolMXBean pool) {
+    return pool.getType() == MemoryType.HEAP
+      && pool.isUsageThresholdSupported();
+  }
+
+  // waiting simulations re-check the heap usage after every collection
+  static void listenToCollections() {
+    synchronized (LOCK) {
+      if (listening) {
+        return;
+      }
+      listening = true;
+    }
+    final NotificationListener listener = new NotificationListener() {
+      @Override
+      public void handleNotification(Notification notification,
+          Object handback) {
+        synchronized (LOCK) {
+          LOCK.notifyAll();
+        }
+      }
+    };
+    for (final GarbageCollectorMXBean gc : ManagementFactory
+      .getGarbageCollectorMXBeans()) {
+      if (gc instanceof NotificationEmitter) {
+        ((NotificationEmitter) gc).addNotificationListener(listener, null,
+          null);
+      }
+    }
+  }
+
+  /**
+   * @return A new builder.
+   */
+  public static Builder builder() {
+    return new AutoValue_HeapGovernor_Builder();
+  }
+
+  @AutoValue
+  public abstract static class Builder
+      extends AbstractModelBuilder<HeapGovernor, Void> {
+    private static final long serialVersionUID = 2319573641098212376L;
+
+    Builder() {}
+
+    @Override
+    public HeapGovernor build(DependencyProvider dependencyProvider) {
+      return acquire();
+    }
+  }
+}
@@ -0,0 +1,52 @@
+/*
+ * Copyright (C) 2011-2016 Rinde van Lon, iMinds-DistriNet, KU Leuven
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.rinde.gpem17.eval;
+
+/**
+ * Partitions the cores of a machine into slots, each slot runs one real-time
+ * simulation. A slot consists of one core for the clock thread (pinned by
+ * {@link TickLogger}) and one core that is shared by all threads of the solver
+ * pool (pinned by the thread grouping of the RtSolverModel). One core is kept
+ * free for the experiment itself and the JVM.
+ * @author Rinde van Lon
+ */
+public final class RealtimeSlots {
+  /**
+   * The number of threads in the solver pool of a single simulation.
+   */
+  public static final int SOLVER_THREADS_PER_SLOT = 3;
+
+  static final int CORES_PER_SLOT = 2;
+  static final int RESERVED_CORES = 1;
+
+  private RealtimeSlots() {}
+
+  /**
+   * @return The number of slots on this machine.
+   */
+  public static int numSlots() {
+    return numSlots(Runtime.getRuntime().availableProcessors());
+  }
+
+  /**
+   * @param cores The number of available cores.
+   * @return The number of real-time simulations that can run concurrently
+   *         without sharing cores, at least one.
+   */
+  public static int numSlots(int cores) {
+    return Math.max(1, (cores - RESERVED_CORES) / CORES_PER_SLOT);
+  }
+}
@@ -0,0 +1,577 @@
+/*
+ * Copyright (C) 2011-2016 Rinde van Lon, iMinds-DistriNet, KU Leuven
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.rinde.gpem17.eval;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.io.RandomAccessFile;
+import java.io.Serializable;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileChannel.MapMode;
+import java.nio.channels.FileLock;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.annotation.Nullable;
+import javax.measure.quantity.Duration;
+import javax.measure.quantity.Length;
+import javax.measure.quantity.Velocity;
+import javax.measure.unit.Unit;
+
+import com.github.rinde.gpem17.AuctionStats;
+import com.github.rinde.logistics.pdptw.mas.comm.AuctionCommModel.AuctionEvent;
+import com.github.rinde.logistics.pdptw.mas.comm.Bidder;
+import com.github.rinde.rinsim.central.SolverTimeMeasurement;
+import com.github.rinde.rinsim.pdptw.common.StatisticsDTO;
+import com.google.common.base.Charsets;
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableListMultimap;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import com.google.common.primitives.Ints;
+
+/**
+ * Content-addressed on-disk store of simulation results that is shared by all
+ * runs (and processes) that use the same directory. Results are appended to a
+ * data file, a memory-mapped open addressing hash table (the index) maps keys
+ * to positions in the data file. A key is the SHA-256 hash of everything that
+ * determines the outcome of a deterministic simulation: the program, the
+ * configuration, the scenario contents and the random seed, see
+ * {@link #keyPrefix(String...)} and {@link #key(String, String, long)}.
+ * <p>
+ * Only the statistics, auction stats and tick log of a {@link SimResult} are
+ * stored. Writes are serialized over processes with a file lock, the index is
+ * replaced by a twice as large one when it becomes half full.
+ * @author Rinde van Lon
+ */
+public final class ResultStore {
+  /**
+   * Is part of every key, should be changed when the simulation semantics
+   * change such that all previously stored results are invalidated.
+   */
+  static final String VERSION = "2";
+
+  static final int MAGIC = 0x52534931;
+  static final int INITIAL_CAPACITY = 1 << 12;
+  // magic, capacity, size, superseded flag
+  static final int HEADER_BYTES = 16;
+  // two longs of the key and the position in the data file (plus one)
+  static final int SLOT_BYTES = 24;
+  // two longs of the key and the length of the payload
+  static final int RECORD_HEADER_BYTES = 20;
+
+  static final String DATA_FILE = "data.bin";
+  static final String LOCK_FILE = "lock";
+  static final String INDEX_PREFIX = "index-";
+  static final String INDEX_SUFFIX = ".bin";
+
+  static final Map<File, ResultStore> STORES = new HashMap<>();
+
+  final File directory;
+  final FileChannel data;
+  final FileChannel lock;
+  FileChannel indexChannel;
+  MappedByteBuffer index;
+  int capacity;
+
+  ResultStore(File dir) throws IOException {
+    directory = dir;
+    directory.mkdirs();
+    data =
+      new RandomAccessFile(new File(dir, DATA_FILE), "rw").getChannel();
+    lock =
+      new RandomAccessFile(new File(dir, LOCK_FILE), "rw").getChannel();
+    try (FileLock l = lock.lock()) {
+      mapIndex();
+    }
+  }
+
+  /**
+   * Opens the store in the specified directory, the store is created if it
+   * does not exist. Within a JVM there is one instance per directory.
+   * @param dir The directory.
+   * @return The store.
+   */
+  public static ResultStore open(File dir) {
+    final File key = dir.getAbsoluteFile();
+    synchronized (STORES) {
+      if (!STORES.containsKey(key)) {
+        try {
+          STORES.put(key, new ResultStore(key));
+        } catch (final IOException e) {
+          throw new IllegalStateException(e);
+        }
+      }
+      return STORES.get(key);
+    }
+  }
+
+  /**
+   * Computes the part of the key that is shared by all simulations of one
+   * configuration.
+   * @param parts The strings that identify the configuration.
+   * @return The prefix as hex string.
+   */
+  public static String keyPrefix(String... parts) {
+    final Hasher hasher = Hashing.sha256().newHasher()
+      .putString(VERSION, Charsets.UTF_8);
+    for (final String part : parts) {
+      hasher.putInt(part.length()).putString(part, Charsets.UTF_8);
+    }
+    return hasher.hash().toString();
+  }
+
+  /**
+   * @param prefix The key prefix, see {@link #keyPrefix(String...)}.
+   * @param scenarioHash The hash of the contents of the scenario file.
+   * @param seed The random seed of the simulation.
+   * @return The key of a single simulation.
+   */
+  public static HashCode key(String prefix, String scenarioHash, long seed) {
+    return Hashing.sha256().newHasher()
+      .putString(prefix, Charsets.UTF_8)
+      .putString(scenarioHash, Charsets.UTF_8)
+      .putLong(seed)
+      .hash();
+  }
+
+  /**
+   * @param obj A serializable object, e.g. an objective function.
+   * @return The hash of the serialized form of the object.
+   */
+  public static String hashOf(Serializable obj) {
+    final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+    try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+      out.writeObject(obj);
+    } catch (final IOException e) {
+      throw new IllegalStateException(e);
+    }
+    return Hashing.sha256().hashBytes(bytes.toByteArray()).toString();
+  }
+
+  /**
+   * Looks up the result that is stored under the specified key.
+   * @param key The key.
+   * @return The stored result or absent if there is none.
+   */
+  public synchronized Optional<SimResult> get(HashCode key) {
+    try {
+      final ByteBuffer record = readRecord(key);
+      if (record == null) {
+        return Optional.absent();
+      }
+      return Optional.of(decode(Arrays.copyOfRange(record.array(),
+        RECORD_HEADER_BYTES, record.capacity())));
+    } catch (final IOException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  // the complete record (header and payload) of the key or null if absent
+  @Nullable
+  ByteBuffer readRecord(HashCode key) throws IOException {
+    final long k0 = key.asLong();
+    final long k1 = secondLong(key);
+    if (isSuperseded()) {
+      try (FileLock l = lock.lock()) {
+        mapIndex();
+      }
+    }
+    final int slot = findSlot(k0, k1);
+    final long pos = index.getLong(slotOffset(slot) + 16) - 1;
+    if (pos < 0) {
+      return null;
+    }
+    final ByteBuffer header = ByteBuffer.allocate(RECORD_HEADER_BYTES);
+    readFully(header, pos);
+    if (header.getLong(0) != k0 || header.getLong(8) != k1) {
+      throw new IllegalStateException(
+        "Index of " + directory + " is corrupt at " + pos + ".");
+    }
+    final ByteBuffer record =
+      ByteBuffer.allocate(RECORD_HEADER_BYTES + header.getInt(16));
+    readFully(record, pos);
+    return record;
+  }
+
+  /**
+   * Stores the result under the specified key, nothing happens if the key is
+   * already present.
+   * @param key The key.
+   * @param result The result to store.
+   */
+  public synchronized void put(HashCode key, SimResult result) {
+    put(key.asLong(), secondLong(key), encode(result));
+  }
+
+  synchronized void put(long k0, long k1, byte[] payload) {
+    try (FileLock l = lock.lock()) {
+      if (isSuperseded()) {
+        mapIndex();
+      }
+      final int slot = findSlot(k0, k1);
+      if (index.getLong(slotOffset(slot) + 16) != 0) {
+        return;
+      }
+      final long pos = data.size();
+      final ByteBuffer record =
+        ByteBuffer.allocate(RECORD_HEADER_BYTES + payload.length);
+      record.putLong(k0).putLong(k1).putInt(payload.length).put(payload);
+      record.flip();
+      long p = pos;
+      while (record.hasRemaining()) {
+        p += data.write(record, p);
+      }
+      // the record is complete before it becomes visible in the index
+      insert(slot, k0, k1, pos);
+    } catch (final IOException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  /**
+   * @return The number of results in the store.
+   */
+  public synchronized int size() {
+    return index.getInt(8);
+  }
+
+  /**
+   * @return The size of the data file in bytes, can be used as position for
+   *         {@link #readRecords(long)}.
+   */
+  synchronized long dataSize() {
+    try {
+      return data.size();
+    } catch (final IOException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  /**
+   * Reads the records that were added after the specified position, e.g. to
+   * send them to another machine.
+   * @param position A position obtained via {@link #dataSize()}.
+   * @return The complete records in the format of the data file.
+   */
+  synchronized byte[] readRecords(long position) {
+    try {
+      final ByteBuffer records =
+        ByteBuffer.allocate(Ints.checkedCast(data.size() - position));
+      readFully(records, position);
+      // an incomplete record at the end is still being written
+      int end = 0;
+      while (end + RECORD_HEADER_BYTES <= records.capacity()) {
+        final int next =
+          end + RECORD_HEADER_BYTES + records.getInt(end + 16);
+        if (next > records.capacity()) {
+          break;
+        }
+        end = next;
+      }
+      return Arrays.copyOf(records.array(), end);
+    } catch (final IOException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  /**
+   * Reads the records of the specified keys, e.g. to send them to another
+   * machine. Keys that are not in the store are ignored.
+   * @param keys The keys.
+   * @return The records in the format of the data file.
+   */
+  synchronized byte[] readRecords(Iterable<HashCode> keys) {
+    final ByteArrayOutputStream records = new ByteArrayOutputStream();
+    try {
+      for (final HashCode key : keys) {
+        final ByteBuffer record = readRecord(key);
+        if (record != null) {
+          records.write(record.array());
+        }
+      }
+    } catch (final IOException e) {
+      throw new IllegalStateException(e);
+    }
+    return records.toByteArray();
+  }
+
+  /**
+   * Adds records that were read via {@link #readRecords(long)} or
+   * {@link #readRecords(Iterable)}, records of
+   * keys that are already present are ignored.
+   * @param records The records.
+   */
+  synchronized void putRecords(byte[] records) {
+    final ByteBuffer buffer = ByteBuffer.wrap(records);
+    while (buffer.hasRemaining()) {
+      final long k0 = buffer.getLong();
+      final long k1 = buffer.getLong();
+      final byte[] payload = new byte[buffer.getInt()];
+      buffer.get(payload);
+      put(k0, k1, payload);
+    }
+  }
+
+  void insert(int slot, long k0, long k1, long pos) throws IOException {
+    final int offset = slotOffset(slot);
+    index.putLong(offset, k0);
+    index.putLong(offset + 8, k1);
+    index.putLong(offset + 16, pos + 1);
+    final int size = index.getInt(8) + 1;
+    index.putInt(8, size);
+    if (2 * size > capacity) {
+      grow();
+    }
+  }
+
+  // returns the slot containing the key or the empty slot where it should be
+  int findSlot(long k0, long k1) {
+    final int mask = capacity - 1;
+    int slot = (int) (k0 ^ (k0 >>> 32)) & mask;
+    while (true) {
+      final int offset = slotOffset(slot);
+      if (index.getLong(offset + 16) == 0
+        || index.getLong(offset) == k0 && index.getLong(offset + 8) == k1) {
+        return slot;
+      }
+      slot = (slot + 1) & mask;
+    }
+  }
+
+  // should be called while holding the lock
+  void mapIndex() throws IOException {
+    final File[] files = directory.listFiles(new FilenameFilter() {
+      @Override
+      public boolean accept(File dir, String name) {
+        return name.startsWith(INDEX_PREFIX) && name.endsWith(INDEX_SUFFIX);
+      }
+    });
+    int cap = 0;
+    for (final File f : files) {
+      final String name = f.getName();
+      cap = Math.max(cap, Integer.parseInt(name.substring(
+        INDEX_PREFIX.length(), name.length() - INDEX_SUFFIX.length())));
+    }
+    if (cap == 0) {
+      // no index yet, the data file may exist though (e.g. copied from
+      // another machine)
+      createIndex(INITIAL_CAPACITY);
+      rebuildFromData();
+    } else {
+      map(cap);
+      if (index.getInt(0) != MAGIC) {
+        createIndex(cap);
+        rebuildFromData();
+      }
+    }
+  }
+
+  void grow() throws IOException {
+    final MappedByteBuffer old = index;
+    final int oldCapacity = capacity;
+    final File oldFile = indexFile(oldCapacity);
+    createIndex(oldCapacity * 2);
+    int size = 0;
+    for (int i = 0; i < oldCapacity; i++) {
+      final int offset = HEADER_BYTES + i * SLOT_BYTES;
+      final long pos = old.getLong(offset + 16);
+      if (pos != 0) {
+        final long k0 = old.getLong(offset);
+        final long k1 = old.getLong(offset + 8);
+        final int slotOffset = slotOffset(findSlot(k0, k1));
+        index.putLong(slotOffset, k0);
+        index.putLong(slotOffset + 8, k1);
+        index.putLong(slotOffset + 16, pos);
+        size++;
+      }
+    }
+    index.putInt(8, size);
+    // other processes that still use the old index will switch
+    old.putInt(12, 1);
+    oldFile.delete();
+  }
+
+  void rebuildFromData() throws IOException {
+    final long end = data.size();
+    long pos = 0;
+    final ByteBuffer header = ByteBuffer.allocate(RECORD_HEADER_BYTES);
+    while (pos + RECORD_HEADER_BYTES <= end) {
+      header.clear();
+      readFully(header, pos);
+      final int length = header.getInt(16);
+      if (pos + RECORD_HEADER_BYTES + length > end) {
+        // incomplete record at the end, e.g. caused by a crash
+        break;
+      }
+      final long k0 = header.getLong(0);
+      final long k1 = header.getLong(8);
+      final int slot = findSlot(k0, k1);
+      if (index.getLong(slotOffset(slot) + 16) == 0) {
+        insert(slot, k0, k1, pos);
+      }
+      pos += RECORD_HEADER_BYTES + length;
+    }
+  }
+
+  void createIndex(int cap) throws IOException {
+    indexFile(cap).delete();
+    map(cap);
+  }
+
+  void map(int cap) throws IOException {
+    if (indexChannel != null) {
+      indexChannel.close();
+    }
+    indexChannel = new RandomAccessFile(indexFile(cap), "rw").getChannel();
+    index = indexChannel.map(MapMode.READ_WRITE, 0,
+      HEADER_BYTES + (long) cap * SLOT_BYTES);
+    capacity = cap;
+    if (index.getInt(4) == 0) {
+      // new file
+      index.putInt(0, MAGIC);
+      index.putInt(4, cap);
+    }
+  }
+
+  boolean isSuperseded() {
+    return index.getInt(12) != 0;
+  }
+
+  File indexFile(int cap) {
+    return new File(directory, INDEX_PREFIX + cap + INDEX_SUFFIX);
+  }
+
+  void readFully(ByteBuffer buffer, long position) throws IOException {
+    long p = position;
+    while (buffer.hasRemaining()) {
+      final int read = data.read(buffer, p);
+      if (read < 0) {
+        throw new IOException("Unexpected end of " + DATA_FILE + ".");
+      }
+      p += read;
+    }
+  }
+
+  static int slotOffset(int slot) {
+    return HEADER_BYTES + slot * SLOT_BYTES;
+  }
+
+  static long secondLong(HashCode key) {
+    return ByteBuffer.wrap(key.asBytes()).getLong(8);
+  }
+
+  static byte[] encode(SimResult result) {
+    final StatisticsDTO s = result.getStats();
+    final ByteArrayOutputStream bytes = new ByteArrayOutputStream(256);
+    try (DataOutputStream out = new DataOutputStream(bytes)) {
+      out.writeDouble(s.totalDistance);
+      out.writeInt(s.totalPickups);
+      out.writeInt(s.totalDeliveries);
+      out.writeInt(s.totalParcels);
+      out.writeInt(s.acceptedParcels);
+      out.writeLong(s.pickupTardiness);
+      out.writeLong(s.deliveryTardiness);
+      out.writeLong(s.computationTime);
+      out.writeLong(s.simulationTime);
+      out.writeBoolean(s.simFinish);
+      out.writeInt(s.vehiclesAtDepot);
+      out.writeLong(s.overTime);
+      out.writeInt(s.totalVehicles);
+      out.writeInt(s.movedVehicles);
+      out.writeUTF(s.timeUnit.toString());
+      out.writeUTF(s.distanceUnit.toString());
+      out.writeUTF(s.speedUnit.toString());
+
+      final Optional<AuctionStats> aStats = result.getAuctionStats();
+      out.writeBoolean(aStats.isPresent());
+      if (aStats.isPresent()) {
+        out.writeInt(aStats.get().getNumParcels());
+        out.writeInt(aStats.get().getNumReauctions());
+        out.writeInt(aStats.get().getNumUnsuccesfulReauctions());
+        out.writeInt(aStats.get().getNumFailedReauctions());
+      }
+      result.getTickLog().writeTo(out);
+    } catch (final IOException e) {
+      throw new IllegalStateException(e);
+    }
+    return bytes.toByteArray();
+  }
+
+  @SuppressWarnings("unchecked")
+  static SimResult decode(byte[] bytes) throws IOException {
+    final DataInputStream in =
+      new DataInputStream(new ByteArrayInputStream(bytes));
+    final double totalDistance = in.readDouble();
+    final int totalPickups = in.readInt();
+    final int totalDeliveries = in.readInt();
+    final int totalParcels = in.readInt();
+    final int acceptedParcels = in.readInt();
+    final long pickupTardiness = in.readLong();
+    final long deliveryTardiness = in.readLong();
+    final long computationTime = in.readLong();
+    final long simulationTime = in.readLong();
+    final boolean simFinish = in.readBoolean();
+    final int vehiclesAtDepot = in.readInt();
+    final long overTime = in.readLong();
+    final int totalVehicles = in.readInt();
+    final int movedVehicles = in.readInt();
+    final Unit<Duration> timeUnit =
+      (Unit<Duration>) Unit.valueOf(in.readUTF());
+    final Unit<Length> distanceUnit =
+      (Unit<Length>) Unit.valueOf(in.readUTF());
+    final Unit<Velocity> speedUnit =
+      (Unit<Velocity>) Unit.valueOf(in.readUTF());
+    final StatisticsDTO stats = new StatisticsDTO(totalDistance, totalPickups,
+      totalDeliveries, totalParcels, acceptedParcels, pickupTardiness,
+      deliveryTardiness, computationTime, simulationTime, simFinish,
+      vehiclesAtDepot, overTime, totalVehicles, movedVehicles, timeUnit,
+      distanceUnit, speedUnit);
+
+    final Optional<AuctionStats> aStats;
+    if (in.readBoolean()) {
+      aStats = Optional.of(AuctionStats.create(in.readInt(), in.readInt(),
+        in.readInt(), in.readInt()));
+    } else {
+      aStats = Optional.absent();
+    }
+    final TickLog tickLog = TickLog.readFrom(in);
+    return SimResult.create(stats, tickLog, aStats,
+      ImmutableList.<AuctionEvent>of(),
+      ImmutableListMultimap.<Bidder<?>, SolverTimeMeasurement>of());
+  }
+
+  /**
+   * @param result The result.
+   * @return <code>true</code> if the result can be stored without losing
+   *         information, i.e. it has no auction events or time measurements.
+   */
+  public static boolean isStorable(@Nullable SimResult result) {
+    return result != null && result.getAuctionEvents().isEmpty()
+      && result.getTimeMeasurements().isEmpty();
+  }
+}
@@ -15,13 +15,14 @@
  */
 package com.github.rinde.gpem17.eval;
 
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
 import java.io.File;
-import java.io.FileWriter;
+import java.io.FileOutputStream;
 import java.io.IOException;
 import java.util.Collection;
 
 import com.github.rinde.gpem17.AuctionStats;
-import com.github.rinde.rinsim.core.model.time.RealtimeTickInfo;
 import com.github.rinde.rinsim.experiment.Experiment.SimArgs;
 import com.github.rinde.rinsim.experiment.Experiment.SimulationResult;
 import com.github.rinde.rinsim.experiment.ExperimentResults;
@@ -38,10 +39,11 @@ import com.google.common.collect.ImmutableSet;
 import com.google.common.collect.LinkedHashMultimap;
 import com.google.common.collect.Multimap;
 import com.google.common.io.Files;
+import com.google.common.primitives.Ints;
 
 abstract class ResultWriter implements ResultListener {
   final File experimentDirectory;
-  final File timeDeviationsDirectory;
+  final File timeDeviationsFile;
   final Gendreau06ObjectiveFunction objectiveFunction;
   final boolean realtime;
   private final boolean createFinalFiles;
@@ -55,11 +57,9 @@ abstract class ResultWriter implements ResultListener {
     createFinalFiles = finalFiles;
     minimizeIO = minimizeIOops;
     if (rt) {
-      timeDeviationsDirectory =
-        new File(experimentDirectory, "time-deviations");
-      timeDeviationsDirectory.mkdirs();
+      timeDeviationsFile = new File(experimentDirectory, "time-deviations.bin");
     } else {
-      timeDeviationsDirectory = null;
+      timeDeviationsFile = null;
     }
   }
 
@@ -103,6 +103,11 @@ abstract class ResultWriter implements ResultListener {
     try {
       setup.createNewFile();
       Files.write(sb.toString(), setup, Charsets.UTF_8);
+      if (timeDeviationsFile != null) {
+        // tick logs are appended during the experiment, logs of a previous
+        // experiment in the same directory are discarded
+        Files.write(new byte[0], timeDeviationsFile);
+      }
     } catch (final IOException e) {
       throw new IllegalStateException(e);
     }
@@ -211,12 +216,7 @@ abstract class ResultWriter implements ResultListener {
   static void appendTimeLogSummary(SimulationResult sr, File target) {
     if (sr.getResultObject() instanceof SimResult) {
       final SimResult info = (SimResult) sr.getResultObject();
-
-      final int tickInfoListSize = info.getTickInfoList().size();
-      long sumIatNs = 0;
-      for (final RealtimeTickInfo md : info.getTickInfoList()) {
-        sumIatNs += md.getInterArrivalTime();
-      }
+      final TickLog tickLog = info.getTickLog();
 
       try {
         Files.append(Joiner.on(',').join(
@@ -225,11 +225,18 @@ abstract class ResultWriter implements ResultListener {
           sr.getSimArgs().getMasConfig().getName(),
           sr.getSimArgs().getRandomSeed(),
           sr.getSimArgs().getRepetition(),
-          tickInfoListSize,
-          tickInfoListSize == 0 ? 0
-            : sumIatNs / tickInfoListSize,
-          info.getRtCount(),
-          info.getStCount() + "\n"), target, Charsets.UTF_8);
+          tickLog.size(),
+          tickLog.getMeanInterArrivalTime(),
+          tickLog.getMaxInterArrivalTime(),
+          tickLog.getPercentile50(),
+          tickLog.getPercentile95(),
+          tickLog.getPercentile99(),
+          tickLog.getNumLateTicks(),
+          tickLog.getRtCount(),
+          tickLog.getStCount(),
+          Joiner.on(';').join(
+            Ints.asList(tickLog.getBudgetLevelCounts())) + "\n"),
+          target, Charsets.UTF_8);
       } catch (final IOException e) {
         throw new IllegalStateException(e);
       }
@@ -246,8 +253,14 @@ abstract class ResultWriter implements ResultListener {
         "repetition",
         "rt-tick-infos",
         "avg-interarrival-time",
+        "max-interarrival-time",
+        "p50-interarrival-time",
+        "p95-interarrival-time",
+        "p99-interarrival-time",
+        "late-ticks",
         "rt-count",
-        "st-count\n"), target, Charsets.UTF_8);
+        "st-count",
+        "budget-levels\n"), target, Charsets.UTF_8);
     } catch (final IOException e) {
       throw new IllegalStateException(e);
     }
@@ -295,7 +308,7 @@ abstract class ResultWriter implements ResultListener {
     }
   }
 
-  void writeTimeLog(SimulationResult result) {
+  synchronized void writeTimeLog(SimulationResult result) {
     final String configName = result.getSimArgs().getMasConfig().getName();
     final File timeLogSummaryFile =
       new File(experimentDirectory, configName + "-timelog-summary.csv");
@@ -304,10 +317,12 @@ abstract class ResultWriter implements ResultListener {
       createTimeLogSummaryHeader(timeLogSummaryFile);
     }
     appendTimeLogSummary(result, timeLogSummaryFile);
-    createTimeLog(result, timeDeviationsDirectory);
+    createTimeLog(result, timeDeviationsFile);
   }
 
-  static void createTimeLog(SimulationResult sr, File experimentDir) {
+  // all tick logs of an experiment are appended to a single binary file, see
+  // TickLog.read(File)
+  static void createTimeLog(SimulationResult sr, File target) {
     if (!(sr.getResultObject() instanceof SimResult)) {
       return;
     }
@@ -321,14 +336,11 @@ abstract class ResultWriter implements ResultListener {
       simArgs.getRandomSeed(),
       simArgs.getRepetition());
 
-    final File iatFile = new File(experimentDir, id + "-interarrivaltimes.csv");
     final SimResult info = (SimResult) sr.getResultObject();
-    try (FileWriter writer = new FileWriter(iatFile)) {
-      iatFile.createNewFile();
-      for (final RealtimeTickInfo md : info.getTickInfoList()) {
-        writer.write(Long.toString(md.getInterArrivalTime()));
-        writer.write(System.lineSeparator());
-      }
+    try (DataOutputStream out = new DataOutputStream(
+      new BufferedOutputStream(new FileOutputStream(target, true)))) {
+      out.writeUTF(id);
+      info.getTickLog().writeTo(out);
     } catch (final IOException e) {
       throw new IllegalStateException(e);
     }
@@ -0,0 +1,82 @@
+/*
+ * Copyright (C) 2011-2016 Rinde van Lon, iMinds-DistriNet, KU Leuven
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.rinde.gpem17.eval;
+
+import static com.google.common.base.Verify.verifyNotNull;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+
+import javax.annotation.Nullable;
+
+import com.github.rinde.rinsim.scenario.Scenario;
+import com.github.rinde.rinsim.scenario.ScenarioIO;
+import com.google.common.base.Function;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+
+/**
+ * Reads and converts scenario files. The converted scenarios are kept by the
+ * JVM (as long as there is enough memory, see also {@link HeapGovernor}) such
+ * that consecutive experiments on the same files, e.g. the generations of an
+ * evolution or the tasks of a {@link Worker}, do not parse and convert them
+ * again. Scenarios are immutable, a single instance is shared by all
+ * simulations that use it.
+ * @author Rinde van Lon
+ */
+final class ScenarioReader implements Function<Path, Scenario> {
+  // keyed by path, modification time and converter
+  static final Cache<String, Scenario> SCENARIOS =
+    CacheBuilder.newBuilder().softValues().build();
+
+  final Function<Path, Scenario> reader;
+  final String converterId;
+
+  ScenarioReader(Function<Scenario, Scenario> converter) {
+    reader = ScenarioIO.readerAdapter(converter);
+    converterId = converterId(converter);
+  }
+
+  @Override
+  public Scenario apply(@Nullable Path input) {
+    final Path path = verifyNotNull(input);
+    final String key;
+    try {
+      key = path.toAbsolutePath() + "@"
+        + Files.getLastModifiedTime(path).toMillis() + "/" + converterId;
+    } catch (final IOException e) {
+      throw new IllegalStateException(e);
+    }
+    try {
+      return SCENARIOS.get(key, new Callable<Scenario>() {
+        @Override
+        public Scenario call() {
+          return reader.apply(path);
+        }
+      });
+    } catch (final ExecutionException e) {
+      throw new IllegalStateException(e.getCause());
+    }
+  }
+
+  // identifies the conversion that is applied to a scenario
+  static String converterId(Function<Scenario, Scenario> converter) {
+    return converter.getClass().getName() + "." + converter;
+  }
+}
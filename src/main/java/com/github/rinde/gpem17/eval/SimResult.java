@@ -1,14 +1,11 @@
 package com.github.rinde.gpem17.eval;
 
 import java.io.Serializable;
-import java.util.List;
 
 import com.github.rinde.gpem17.AuctionStats;
 import com.github.rinde.logistics.pdptw.mas.comm.AuctionCommModel.AuctionEvent;
 import com.github.rinde.logistics.pdptw.mas.comm.Bidder;
 import com.github.rinde.rinsim.central.SolverTimeMeasurement;
-import com.github.rinde.rinsim.core.model.time.RealtimeClockLogger.LogEntry;
-import com.github.rinde.rinsim.core.model.time.RealtimeTickInfo;
 import com.github.rinde.rinsim.pdptw.common.StatisticsDTO;
 import com.google.auto.value.AutoValue;
 import com.google.common.base.Optional;
@@ -21,15 +18,9 @@ public abstract class SimResult implements Serializable {
 
   SimResult() {}
 
-  abstract List<LogEntry> getLog();
-
-  abstract long getRtCount();
-
-  abstract long getStCount();
-
   public abstract StatisticsDTO getStats();
 
-  abstract ImmutableList<RealtimeTickInfo> getTickInfoList();
+  public abstract TickLog getTickLog();
 
   public abstract Optional<AuctionStats> getAuctionStats();
 
@@ -37,12 +28,11 @@ public abstract class SimResult implements Serializable {
 
   abstract ImmutableListMultimap<Bidder<?>, SolverTimeMeasurement> getTimeMeasurements();
 
-  static SimResult create(List<LogEntry> log, long rt, long st,
-      StatisticsDTO stats, ImmutableList<RealtimeTickInfo> dev,
+  static SimResult create(StatisticsDTO stats, TickLog tickLog,
       Optional<AuctionStats> aStats,
       ImmutableList<AuctionEvent> auctionEvents,
       ImmutableListMultimap<Bidder<?>, SolverTimeMeasurement> timeMeasurements) {
-    return new AutoValue_SimResult(log, rt, st, stats, dev, aStats,
-      auctionEvents, timeMeasurements);
+    return new AutoValue_SimResult(stats, tickLog, aStats, auctionEvents,
+      timeMeasurements);
   }
 }
@@ -0,0 +1,157 @@
+/*
+ * Copyright (C) 2011-2016 Rinde van Lon, iMinds-DistriNet, KU Leuven
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.rinde.gpem17.eval;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+
+import com.github.rinde.gpem17.GPEM17.ReauctOpt;
+import com.github.rinde.rinsim.scenario.Scenario;
+import com.google.auto.value.AutoValue;
+import com.google.common.base.Charsets;
+import com.google.common.base.Function;
+import com.google.common.collect.ImmutableList;
+
+/**
+ * A batch of simulated time simulations that is computed by a {@link Worker}:
+ * every program on a single scenario. Tasks are sent in a compact binary
+ * format, see {@link #writeTo(DataOutputStream)}, the configurations are
+ * created by the worker.
+ * @author Rinde van Lon
+ */
+@AutoValue
+public abstract class SimTask {
+  // should be changed when the format changes
+  static final int FORMAT_VERSION = 2;
+
+  SimTask() {}
+
+  /**
+   * @return The string representations of the programs.
+   */
+  public abstract ImmutableList<String> getPrograms();
+
+  /**
+   * @return The file name of the scenario.
+   */
+  public abstract String getScenarioFileName();
+
+  /**
+   * @return The SHA-256 hash of the contents of the scenario file, workers
+   *         obtain the contents from the coordinator when they do not have
+   *         the scenario yet.
+   */
+  public abstract String getScenarioHash();
+
+  public abstract ReauctOpt getReauctOpt();
+
+  /**
+   * @return The weights of the objective function used at runtime:
+   *         'tt-td-ot'.
+   */
+  public abstract String getObjFuncWeights();
+
+  /**
+   * @return The scenario converter, a constant of an enum.
+   */
+  public abstract Function<Scenario, Scenario> getScenarioConverter();
+
+  void writeTo(DataOutputStream out) throws IOException {
+    out.writeByte(FORMAT_VERSION);
+    out.writeInt(getPrograms().size());
+    for (final String prog : getPrograms()) {
+      writeString(out, prog);
+    }
+    writeString(out, getScenarioFileName());
+    writeString(out, getScenarioHash());
+    out.writeByte(getReauctOpt().ordinal());
+    writeString(out, getObjFuncWeights());
+    final Enum<?> conv = (Enum<?>) getScenarioConverter();
+    writeString(out, conv.getDeclaringClass().getName());
+    writeString(out, conv.name());
+  }
+
+  static SimTask readFrom(DataInputStream in) throws IOException {
+    final int version = in.readUnsignedByte();
+    if (version != FORMAT_VERSION) {
+      throw new IOException("Unsupported task format: " + version + ".");
+    }
+    final int numPrograms = in.readInt();
+    final ImmutableList.Builder<String> programs = ImmutableList.builder();
+    for (int i = 0; i < numPrograms; i++) {
+      programs.add(readString(in));
+    }
+    final String scenarioFileName = readString(in);
+    final String scenarioHash = readString(in);
+    final ReauctOpt reauctOpt = ReauctOpt.values()[in.readUnsignedByte()];
+    final String objFuncWeights = readString(in);
+    final String converterClass = readString(in);
+    final String converterName = readString(in);
+    return create(programs.build(), scenarioFileName, scenarioHash, reauctOpt,
+      objFuncWeights, converter(converterClass, converterName));
+  }
+
+  @SuppressWarnings({"unchecked", "rawtypes"})
+  static Function<Scenario, Scenario> converter(String className,
+      String name) throws IOException {
+    try {
+      return (Function<Scenario, Scenario>) Enum.valueOf(
+        (Class<Enum>) Class.forName(className).asSubclass(Enum.class), name);
+    } catch (final ClassNotFoundException | IllegalArgumentException e) {
+      throw new IOException("Unknown converter: " + className + "." + name,
+        e);
+    }
+  }
+
+  // unlike writeUTF, strings (e.g. programs) may be longer than 64KB
+  static void writeString(DataOutputStream out, String str)
+      throws IOException {
+    final byte[] bytes = str.getBytes(Charsets.UTF_8);
+    out.writeInt(bytes.length);
+    out.write(bytes);
+  }
+
+  static String readString(DataInputStream in) throws IOException {
+    final byte[] bytes = new byte[in.readInt()];
+    in.readFully(bytes);
+    return new String(bytes, Charsets.UTF_8);
+  }
+
+  /**
+   * Creates a new task, the arguments correspond to the arguments of
+   * {@link Evaluate#execute}.
+   * @param programs The programs.
+   * @param scenarioFileName The file name of the scenario.
+   * @param scenarioHash The SHA-256 hash of the contents of the scenario
+   *          file.
+   * @param reauctOpt The reauction option.
+   * @param objFuncWeights The weights of the objective function used at
+   *          runtime: 'tt-td-ot'.
+   * @param converter The scenario converter, must be an enum constant.
+   * @return A new task.
+   */
+  public static SimTask create(Iterable<String> programs,
+      String scenarioFileName, String scenarioHash, ReauctOpt reauctOpt,
+      String objFuncWeights, Function<Scenario, Scenario> converter) {
+    checkArgument(converter instanceof Enum,
+      "The converter should be an enum constant, found %s.", converter);
+    return new AutoValue_SimTask(ImmutableList.copyOf(programs),
+      scenarioFileName, scenarioHash, reauctOpt, objFuncWeights, converter);
+  }
+}
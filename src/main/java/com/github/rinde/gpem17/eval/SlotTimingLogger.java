@@ -0,0 +1,115 @@
+/*
+ * Copyright (C) 2011-2016 Rinde van Lon, iMinds-DistriNet, KU Leuven
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.rinde.gpem17.eval;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Map;
+import java.util.TreeMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.github.rinde.rinsim.experiment.Experiment.SimulationResult;
+import com.github.rinde.rinsim.experiment.ExperimentResults;
+import com.github.rinde.rinsim.experiment.MASConfiguration;
+import com.github.rinde.rinsim.experiment.ResultListener;
+import com.github.rinde.rinsim.scenario.Scenario;
+import com.google.common.base.Charsets;
+import com.google.common.base.Joiner;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.io.Files;
+
+/**
+ * Verifies the timing quality of real-time simulations per slot (the CPU the
+ * clock thread was pinned to), based on the {@link TickLog} of each
+ * simulation. Simulations with too many late ticks are reported and a summary
+ * per slot is written to <code>timing-per-slot.csv</code>.
+ * @author Rinde van Lon
+ */
+public class SlotTimingLogger implements ResultListener {
+  static final Logger LOGGER = LoggerFactory.getLogger(SlotTimingLogger.class);
+
+  // fraction of late ticks above which a simulation is reported
+  static final double MAX_LATE_TICK_FRACTION = .01;
+
+  final File slotsFile;
+  final Map<Integer, SlotStats> slots;
+
+  SlotTimingLogger(File dir) {
+    slotsFile = new File(dir, "timing-per-slot.csv");
+    slots = new TreeMap<>();
+  }
+
+  @Override
+  public void startComputing(int numberOfSimulations,
+      ImmutableSet<MASConfiguration> configurations,
+      ImmutableSet<Scenario> scenarios, int repetitions, int seedRepetitions) {}
+
+  @Override
+  public synchronized void receive(SimulationResult result) {
+    if (!(result.getResultObject() instanceof SimResult)) {
+      return;
+    }
+    final TickLog log = ((SimResult) result.getResultObject()).getTickLog();
+    if (!slots.containsKey(log.getCpuId())) {
+      slots.put(log.getCpuId(), new SlotStats());
+    }
+    final SlotStats stats = slots.get(log.getCpuId());
+    stats.sims++;
+    stats.ticks += log.size();
+    stats.lateTicks += log.getNumLateTicks();
+    stats.maxIat = Math.max(stats.maxIat, log.getMaxInterArrivalTime());
+
+    if (log.size() > 0
+      && log.getNumLateTicks() > MAX_LATE_TICK_FRACTION * log.size()) {
+      stats.badSims++;
+      LOGGER.warn("{} of {} ticks were late on cpu {} (max {}ns): {}",
+        log.getNumLateTicks(), log.size(), log.getCpuId(),
+        log.getMaxInterArrivalTime(), result.getSimArgs());
+    }
+    write();
+  }
+
+  void write() {
+    final StringBuilder sb = new StringBuilder();
+    Joiner.on(",").appendTo(sb, "cpu", "simulations", "ticks", "late-ticks",
+      "max-interarrival-time", "simulations-with-late-ticks")
+      .append(System.lineSeparator());
+    for (final Map.Entry<Integer, SlotStats> entry : slots.entrySet()) {
+      final SlotStats s = entry.getValue();
+      Joiner.on(",").appendTo(sb, entry.getKey(), s.sims, s.ticks,
+        s.lateTicks, s.maxIat, s.badSims)
+        .append(System.lineSeparator());
+    }
+    try {
+      Files.write(sb, slotsFile, Charsets.UTF_8);
+    } catch (final IOException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  @Override
+  public void doneComputing(ExperimentResults results) {}
+
+  static class SlotStats {
+    int sims;
+    long ticks;
+    long lateTicks;
+    long maxIat;
+    int badSims;
+  }
+}
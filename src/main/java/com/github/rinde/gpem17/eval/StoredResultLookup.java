@@ -0,0 +1,133 @@
+/*
+ * Copyright (C) 2011-2016 Rinde van Lon, iMinds-DistriNet, KU Leuven
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.rinde.gpem17.eval;
+
+import java.io.File;
+
+import com.github.rinde.rinsim.core.model.DependencyProvider;
+import com.github.rinde.rinsim.core.model.Model.AbstractModelVoid;
+import com.github.rinde.rinsim.core.model.ModelBuilder.AbstractModelBuilder;
+import com.github.rinde.rinsim.core.model.rand.RandomProvider;
+import com.github.rinde.rinsim.core.model.time.ClockController;
+import com.github.rinde.rinsim.core.model.time.TickListener;
+import com.github.rinde.rinsim.core.model.time.TimeLapse;
+import com.github.rinde.rinsim.scenario.ScenarioController;
+import com.google.auto.value.AutoValue;
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableMap;
+import com.google.common.hash.HashCode;
+
+/**
+ * Looks up the result of the current simulation in a {@link ResultStore}. When
+ * the result is found the simulation is stopped at the first tick and
+ * {@link GpemPostProcessor} returns the stored result, otherwise the computed
+ * result is added to the store. Should only be used for deterministic
+ * (simulated time) configurations.
+ * @author Rinde van Lon
+ */
+public final class StoredResultLookup extends AbstractModelVoid
+    implements TickListener {
+  final ResultStore store;
+  final ClockController clock;
+  final Optional<HashCode> key;
+  final Optional<SimResult> storedResult;
+
+  StoredResultLookup(ResultStore rs, ClockController c,
+      Optional<HashCode> k) {
+    store = rs;
+    clock = c;
+    key = k;
+    if (key.isPresent()) {
+      storedResult = store.get(key.get());
+    } else {
+      storedResult = Optional.absent();
+    }
+  }
+
+  @Override
+  public void tick(TimeLapse timeLapse) {
+    if (storedResult.isPresent()) {
+      clock.stop();
+    }
+  }
+
+  @Override
+  public void afterTick(TimeLapse timeLapse) {}
+
+  /**
+   * @return The stored result of this simulation, if any.
+   */
+  public Optional<SimResult> getStoredResult() {
+    return storedResult;
+  }
+
+  void store(SimResult result) {
+    if (key.isPresent() && !storedResult.isPresent()
+      && ResultStore.isStorable(result)) {
+      store.put(key.get(), result);
+    }
+  }
+
+  /**
+   * @param storeDir The directory of the {@link ResultStore}.
+   * @param keyPrefix The key prefix of the configuration, see
+   *          {@link ResultStore#keyPrefix(String...)}.
+   * @param scenarioHashes Maps scenario names ('problemclass-instanceid') to
+   *          the hash of the contents of the scenario file. Simulations of
+   *          scenarios that are not in this map are not stored.
+   * @return A new builder.
+   */
+  public static Builder builder(File storeDir, String keyPrefix,
+      ImmutableMap<String, String> scenarioHashes) {
+    return new AutoValue_StoredResultLookup_Builder(storeDir.getPath(),
+      keyPrefix, scenarioHashes);
+  }
+
+  @AutoValue
+  public abstract static class Builder
+      extends AbstractModelBuilder<StoredResultLookup, Void> {
+    private static final long serialVersionUID = -4150998405478812765L;
+
+    Builder() {
+      setDependencies(ClockController.class, ScenarioController.class,
+        RandomProvider.class);
+    }
+
+    abstract String getStoreDir();
+
+    abstract String getKeyPrefix();
+
+    abstract ImmutableMap<String, String> getScenarioHashes();
+
+    @Override
+    public StoredResultLookup build(DependencyProvider dependencyProvider) {
+      final ScenarioController sc =
+        dependencyProvider.get(ScenarioController.class);
+      final String scenarioName = sc.getScenarioProblemClass().getId() + "-"
+        + sc.getScenarioId();
+      final long seed = dependencyProvider.get(RandomProvider.class).getSeed();
+
+      Optional<HashCode> key = Optional.absent();
+      if (getScenarioHashes().containsKey(scenarioName)) {
+        key = Optional.of(ResultStore.key(getKeyPrefix(),
+          getScenarioHashes().get(scenarioName), seed));
+      }
+      return new StoredResultLookup(
+        ResultStore.open(new File(getStoreDir())),
+        dependencyProvider.get(ClockController.class), key);
+    }
+  }
+}
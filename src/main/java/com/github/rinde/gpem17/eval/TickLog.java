@@ -0,0 +1,317 @@
+/*
+ * Copyright (C) 2011-2016 Rinde van Lon, iMinds-DistriNet, KU Leuven
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.rinde.gpem17.eval;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import java.io.BufferedInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.Serializable;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Compact log of the interarrival times of the real-time ticks of a single
+ * simulation. The interarrival times are stored as zig-zag varint encoded
+ * deltas, the first value is relative to the nominal tick length, every next
+ * value is relative to its predecessor. A summary of the interarrival times is
+ * computed while recording such that it is available without decoding.
+ * @author Rinde van Lon
+ */
+public final class TickLog implements Serializable {
+  private static final long serialVersionUID = -2349823469817209231L;
+
+  /**
+   * A tick is considered late when its interarrival time exceeds the nominal
+   * tick length by more than this fraction.
+   */
+  static final double LATE_TICK_FRACTION = .05;
+
+  // resolution of the histogram that is used for computing percentiles, the
+  // reported percentiles are rounded down to this resolution
+  static final long HISTOGRAM_BUCKET_NS = 100000L;
+
+  final long tickLengthNs;
+  final long rtCount;
+  final long stCount;
+  final int numTicks;
+  final long sumNs;
+  final long maxNs;
+  final int lateTicks;
+  final long p50Ns;
+  final long p95Ns;
+  final long p99Ns;
+  final int cpuId;
+  final int[] budgetLevels;
+  final byte[] encoded;
+
+  TickLog(long tickLength, long rt, long st, int num, long sum, long max,
+      int late, long p50, long p95, long p99, int cpu, int[] levels,
+      byte[] data) {
+    tickLengthNs = tickLength;
+    rtCount = rt;
+    stCount = st;
+    numTicks = num;
+    sumNs = sum;
+    maxNs = max;
+    lateTicks = late;
+    p50Ns = p50;
+    p95Ns = p95;
+    p99Ns = p99;
+    cpuId = cpu;
+    budgetLevels = levels;
+    encoded = data;
+  }
+
+  static TickLog empty(long rtCount, long stCount, int cpuId) {
+    return empty(rtCount, stCount, cpuId, new int[0]);
+  }
+
+  static TickLog empty(long rtCount, long stCount, int cpuId,
+      int[] budgetLevels) {
+    return new TickLog(0L, rtCount, stCount, 0, 0L, 0L, 0, 0L, 0L, 0L, cpuId,
+      budgetLevels, new byte[0]);
+  }
+
+  public long getRtCount() {
+    return rtCount;
+  }
+
+  public long getStCount() {
+    return stCount;
+  }
+
+  /**
+   * @return The number of recorded interarrival times.
+   */
+  public int size() {
+    return numTicks;
+  }
+
+  public long getMeanInterArrivalTime() {
+    return numTicks == 0 ? 0 : sumNs / numTicks;
+  }
+
+  public long getMaxInterArrivalTime() {
+    return maxNs;
+  }
+
+  public long getPercentile50() {
+    return p50Ns;
+  }
+
+  public long getPercentile95() {
+    return p95Ns;
+  }
+
+  public long getPercentile99() {
+    return p99Ns;
+  }
+
+  public int getNumLateTicks() {
+    return lateTicks;
+  }
+
+  /**
+   * @return The CPU to which the clock thread was pinned, or <code>-1</code>
+   *         if it was not pinned.
+   */
+  public int getCpuId() {
+    return cpuId;
+  }
+
+  /**
+   * @return For every budget level of the adaptive solvers, the number of
+   *         times it was chosen, empty if no adaptive solvers were used.
+   * @see com.github.rinde.gpem17.AdaptiveSolverBudgets
+   */
+  public int[] getBudgetLevelCounts() {
+    return budgetLevels.clone();
+  }
+
+  /**
+   * @return All recorded interarrival times in nanoseconds, in order of
+   *         occurrence.
+   */
+  public long[] decodeInterArrivalTimes() {
+    final long[] iats = new long[numTicks];
+    long prev = tickLengthNs;
+    int pos = 0;
+    for (int i = 0; i < numTicks; i++) {
+      long raw = 0;
+      int shift = 0;
+      byte b;
+      do {
+        b = encoded[pos++];
+        raw |= (long) (b & 0x7F) << shift;
+        shift += 7;
+      } while ((b & 0x80) != 0);
+      prev += (raw >>> 1) ^ -(raw & 1);
+      iats[i] = prev;
+    }
+    return iats;
+  }
+
+  void writeTo(DataOutputStream out) throws IOException {
+    out.writeLong(tickLengthNs);
+    out.writeLong(rtCount);
+    out.writeLong(stCount);
+    out.writeInt(numTicks);
+    out.writeLong(sumNs);
+    out.writeLong(maxNs);
+    out.writeInt(lateTicks);
+    out.writeLong(p50Ns);
+    out.writeLong(p95Ns);
+    out.writeLong(p99Ns);
+    out.writeInt(cpuId);
+    out.writeInt(budgetLevels.length);
+    for (final int count : budgetLevels) {
+      out.writeInt(count);
+    }
+    out.writeInt(encoded.length);
+    out.write(encoded);
+  }
+
+  static TickLog readFrom(DataInputStream in) throws IOException {
+    final long tickLength = in.readLong();
+    final long rt = in.readLong();
+    final long st = in.readLong();
+    final int num = in.readInt();
+    final long sum = in.readLong();
+    final long max = in.readLong();
+    final int late = in.readInt();
+    final long p50 = in.readLong();
+    final long p95 = in.readLong();
+    final long p99 = in.readLong();
+    final int cpu = in.readInt();
+    final int[] levels = new int[in.readInt()];
+    for (int i = 0; i < levels.length; i++) {
+      levels[i] = in.readInt();
+    }
+    final byte[] data = new byte[in.readInt()];
+    in.readFully(data);
+    return new TickLog(tickLength, rt, st, num, sum, max, late, p50, p95, p99,
+      cpu, levels, data);
+  }
+
+  /**
+   * Reads a binary time deviations file as written by {@link ResultWriter}.
+   * @param file The file to read.
+   * @return A map of simulation id to tick log, in order of occurrence.
+   */
+  public static Map<String, TickLog> read(File file) {
+    final Map<String, TickLog> logs = new LinkedHashMap<>();
+    try (DataInputStream in = new DataInputStream(
+      new BufferedInputStream(new FileInputStream(file)))) {
+      while (true) {
+        final String id;
+        try {
+          id = in.readUTF();
+        } catch (final EOFException e) {
+          break;
+        }
+        logs.put(id, readFrom(in));
+      }
+    } catch (final IOException e) {
+      throw new IllegalStateException("Failed reading " + file, e);
+    }
+    return logs;
+  }
+
+  /**
+   * Records interarrival times one by one, keeps only the encoded deltas and a
+   * fixed size histogram in memory.
+   */
+  static class Recorder {
+    final long tickLengthNs;
+    final long lateThresholdNs;
+    final int[] histogram;
+    byte[] buffer;
+    int bufferSize;
+    int count;
+    long sum;
+    long max;
+    int late;
+    long prev;
+
+    Recorder(long tickLengthMs) {
+      checkArgument(tickLengthMs > 0, "Tick length must be positive.");
+      tickLengthNs = tickLengthMs * 1000000L;
+      lateThresholdNs =
+        tickLengthNs + (long) (tickLengthNs * LATE_TICK_FRACTION);
+      // the last bucket holds everything >= 2 * tick length
+      histogram = new int[(int) (2 * tickLengthNs / HISTOGRAM_BUCKET_NS) + 1];
+      buffer = new byte[1024];
+      prev = tickLengthNs;
+    }
+
+    void record(long interArrivalTimeNs) {
+      final long delta = interArrivalTimeNs - prev;
+      prev = interArrivalTimeNs;
+      long zigzag = (delta << 1) ^ (delta >> 63);
+      if (bufferSize + 10 > buffer.length) {
+        buffer = Arrays.copyOf(buffer, buffer.length * 2);
+      }
+      while ((zigzag & ~0x7FL) != 0) {
+        buffer[bufferSize++] = (byte) ((zigzag & 0x7F) | 0x80);
+        zigzag >>>= 7;
+      }
+      buffer[bufferSize++] = (byte) zigzag;
+
+      count++;
+      sum += interArrivalTimeNs;
+      max = Math.max(max, interArrivalTimeNs);
+      if (interArrivalTimeNs > lateThresholdNs) {
+        late++;
+      }
+      final int bucket = (int) Math.min(histogram.length - 1,
+        Math.max(0L, interArrivalTimeNs) / HISTOGRAM_BUCKET_NS);
+      histogram[bucket]++;
+    }
+
+    long percentile(double p) {
+      if (count == 0) {
+        return 0L;
+      }
+      final long rank = (long) Math.ceil(p * count);
+      long seen = 0;
+      for (int i = 0; i < histogram.length - 1; i++) {
+        seen += histogram[i];
+        if (seen >= rank) {
+          // lower bound of the bucket
+          return Math.min(max, i * HISTOGRAM_BUCKET_NS);
+        }
+      }
+      return max;
+    }
+
+    TickLog build(long rtCount, long stCount, int cpuId) {
+      return build(rtCount, stCount, cpuId, new int[0]);
+    }
+
+    TickLog build(long rtCount, long stCount, int cpuId, int[] budgetLevels) {
+      return new TickLog(tickLengthNs, rtCount, stCount, count, sum, max,
+        late, percentile(.5), percentile(.95), percentile(.99), cpuId,
+        budgetLevels, Arrays.copyOf(buffer, bufferSize));
+    }
+  }
+}
@@ -0,0 +1,221 @@
+/*
+ * Copyright (C) 2011-2016 Rinde van Lon, iMinds-DistriNet, KU Leuven
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.rinde.gpem17.eval;
+
+import static com.google.common.base.Verify.verifyNotNull;
+
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.Nullable;
+
+import net.openhft.affinity.AffinityLock;
+
+import com.github.rinde.gpem17.AdaptiveSolverBudgets;
+import com.github.rinde.gpem17.AdaptiveSolverBudgets.LoadUser;
+import com.github.rinde.rinsim.core.model.DependencyProvider;
+import com.github.rinde.rinsim.core.model.Model.AbstractModel;
+import com.github.rinde.rinsim.core.model.ModelBuilder.AbstractModelBuilder;
+import com.github.rinde.rinsim.core.model.time.Clock.ClockEventType;
+import com.github.rinde.rinsim.core.model.time.RealtimeClockController;
+import com.github.rinde.rinsim.core.model.time.RealtimeClockController.ClockMode;
+import com.github.rinde.rinsim.core.model.time.RealtimeClockLogger;
+import com.github.rinde.rinsim.core.model.time.TickListener;
+import com.github.rinde.rinsim.core.model.time.TimeLapse;
+import com.github.rinde.rinsim.event.Event;
+import com.github.rinde.rinsim.event.Listener;
+import com.google.auto.value.AutoValue;
+
+/**
+ * Replacement of {@link RealtimeClockLogger} that records the interarrival
+ * times of real-time ticks in a compact {@link TickLog} instead of keeping a
+ * list of tick infos in memory. Optionally, the thread that executes the
+ * real-time ticks is pinned to a free CPU such that concurrently running
+ * real-time simulations do not interfere with each other. The CPU is acquired
+ * in the first real-time tick and released by the same thread in the first
+ * tick after which the clock is no longer in real-time mode, an affinity lock
+ * can only be released by the thread that it is bound to. Only the clock
+ * thread is pinned, solver threads are not. The tick intervals are also
+ * recorded in the
+ * {@link AdaptiveSolverBudgets.Load} of the simulation, which is provided to
+ * every {@link LoadUser} that is registered in the simulation.
+ * @author Rinde van Lon
+ */
+public final class TickLogger extends AbstractModel<LoadUser>
+    implements TickListener {
+  final RealtimeClockController clock;
+  final boolean clockAffinity;
+  final AdaptiveSolverBudgets.Load budgetLoad;
+  @Nullable
+  TickLog.Recorder recorder;
+  @Nullable
+  AffinityLock affinityLock;
+  @Nullable
+  Thread boundThread;
+  long rtCounter;
+  long stCounter;
+  long lastRtTickNs;
+  int cpuId;
+
+  TickLogger(RealtimeClockController c, boolean affinity) {
+    clock = c;
+    clockAffinity = affinity;
+    budgetLoad = new AdaptiveSolverBudgets.Load();
+    lastRtTickNs = -1L;
+    cpuId = -1;
+    if (clockAffinity) {
+      clock.getEventAPI().addListener(new Listener() {
+        @Override
+        public void handleEvent(Event e) {
+          awaitAffinityRelease();
+        }
+      }, ClockEventType.STOPPED);
+    }
+  }
+
+  @Override
+  public void tick(TimeLapse timeLapse) {
+    final long now = System.nanoTime();
+    if (clock.getClockMode() == ClockMode.REAL_TIME) {
+      if (clockAffinity && affinityLock == null) {
+        // in real-time mode the ticks are executed by a separate clock thread
+        bindCpu();
+      }
+      rtCounter++;
+      if (recorder == null) {
+        recorder = new TickLog.Recorder(timeLapse.getTickLength());
+      }
+      if (lastRtTickNs >= 0) {
+        recorder.record(now - lastRtTickNs);
+        budgetLoad.recordTickInterval(now - lastRtTickNs,
+          TimeUnit.MILLISECONDS.toNanos(timeLapse.getTickLength()));
+      }
+      lastRtTickNs = now;
+    } else {
+      stCounter++;
+      lastRtTickNs = -1L;
+    }
+  }
+
+  @Override
+  public void afterTick(TimeLapse timeLapse) {
+    if (boundThread == Thread.currentThread()
+      && clock.getClockMode() != ClockMode.REAL_TIME) {
+      // the clock switched to simulated time or stopped during this tick,
+      // this is the last tick that is executed by the bound thread
+      releaseAffinityLock();
+    }
+  }
+
+  @Override
+  public boolean register(LoadUser element) {
+    element.setLoad(budgetLoad);
+    return true;
+  }
+
+  @Override
+  public boolean unregister(LoadUser element) {
+    return true;
+  }
+
+  void bindCpu() {
+    affinityLock = AffinityLock.acquireLock(true);
+    boundThread = Thread.currentThread();
+    if (cpuId < 0) {
+      cpuId = affinityLock.cpuId();
+    }
+  }
+
+  // called by the bound thread or, after it terminated, by any thread
+  void releaseAffinityLock() {
+    verifyNotNull(affinityLock).release();
+    affinityLock = null;
+    boundThread = null;
+  }
+
+  // Called by the simulation thread when the clock has stopped. When the
+  // clock stopped or switched to simulated time in a tick that was not
+  // executed by the bound thread, the lock is still bound to the clock
+  // thread. The executor of that thread has been shut down at this point, as
+  // soon as the thread has terminated its lock is released as the lock of a
+  // dead thread. A lock of a dead thread can be acquired again by other
+  // simulations, also when the thread did not terminate in time.
+  void awaitAffinityRelease() {
+    final Thread thread = boundThread;
+    if (thread == null) {
+      return;
+    }
+    try {
+      thread.join(TimeUnit.SECONDS.toMillis(1));
+    } catch (final InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    if (thread.isAlive()) {
+      affinityLock = null;
+      boundThread = null;
+    } else {
+      releaseAffinityLock();
+    }
+  }
+
+  public long getRtCount() {
+    return rtCounter;
+  }
+
+  public long getStCount() {
+    return stCounter;
+  }
+
+  public TickLog getTickLog() {
+    if (recorder == null) {
+      return TickLog.empty(rtCounter, stCounter, cpuId,
+        budgetLoad.getLevelCounts());
+    }
+    return recorder.build(rtCounter, stCounter, cpuId,
+      budgetLoad.getLevelCounts());
+  }
+
+  public static Builder builder() {
+    return new AutoValue_TickLogger_Builder(false);
+  }
+
+  @AutoValue
+  public abstract static class Builder
+      extends AbstractModelBuilder<TickLogger, LoadUser> {
+    private static final long serialVersionUID = 3298437120487239821L;
+
+    Builder() {
+      setDependencies(RealtimeClockController.class);
+    }
+
+    abstract boolean getClockAffinity();
+
+    /**
+     * @param affinity If <code>true</code> the clock thread is pinned to a
+     *          free CPU, default is <code>false</code>.
+     * @return A new builder instance.
+     */
+    public Builder withClockAffinity(boolean affinity) {
+      return new AutoValue_TickLogger_Builder(affinity);
+    }
+
+    @Override
+    public TickLogger build(DependencyProvider dependencyProvider) {
+      return new TickLogger(
+        dependencyProvider.get(RealtimeClockController.class),
+        getClockAffinity());
+    }
+  }
+}
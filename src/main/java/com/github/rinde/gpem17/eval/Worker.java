@@ -0,0 +1,318 @@
+/*
+ * Copyright (C) 2011-2016 Rinde van Lon, iMinds-DistriNet, KU Leuven
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.rinde.gpem17.eval;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.Socket;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import javax.annotation.Nullable;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import com.github.rinde.ecj.GPFunc;
+import com.github.rinde.ecj.GPProgram;
+import com.github.rinde.ecj.GPProgramParser;
+import com.github.rinde.evo4mas.common.GpGlobal;
+import com.github.rinde.gpem17.GPEM17;
+import com.github.rinde.gpem17.eval.Coordinator.MessageType;
+import com.github.rinde.gpem17.evo.FunctionSet;
+import com.github.rinde.rinsim.experiment.Experiment.SimulationResult;
+import com.github.rinde.rinsim.experiment.ExperimentResults;
+import com.github.rinde.rinsim.io.FileProvider;
+import com.github.rinde.rinsim.scenario.gendreau06.Gendreau06ObjectiveFunction;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hashing;
+import com.google.common.io.Files;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+/**
+ * Computes {@link SimTask}s that it pulls from a {@link Coordinator}, one task
+ * at a time. A worker is a long running process such that the JIT compiled
+ * code is reused by all tasks. Scenarios are requested from the coordinator
+ * only once, they stay resident in the work directory. Optionally, scenarios
+ * are taken from a local copy of the dataset. The worker stops when the
+ * coordinator closes the connection.
+ * @author Rinde van Lon
+ */
+public final class Worker {
+  static final Logger LOGGER = LoggerFactory.getLogger(Worker.class);
+
+  final Socket socket;
+  final String name;
+  final ScenarioCache scenarios;
+  final TaskComputer computer;
+  final DataInputStream in;
+  final DataOutputStream out;
+
+  Worker(Socket s, String nm, ScenarioCache cache, TaskComputer comp)
+      throws IOException {
+    socket = s;
+    name = nm;
+    scenarios = cache;
+    computer = comp;
+    socket.setTcpNoDelay(true);
+    in = new DataInputStream(new BufferedInputStream(socket.getInputStream()));
+    out = new DataOutputStream(
+      new BufferedOutputStream(socket.getOutputStream()));
+  }
+
+  /**
+   * Starts a worker. Arguments: host and port of the coordinator, optionally
+   * followed by the number of threads (default: all processors), a work
+   * directory (default: a temporary directory) and a directory containing a
+   * copy of the dataset (e.g. files/dataset10k).
+   * @param args The arguments.
+   */
+  public static void main(String[] args) {
+    checkArgument(args.length >= 2,
+      "Expected arguments: host port [threads] [work dir] [dataset dir].");
+    final int threads = args.length >= 3 ? Integer.parseInt(args[2])
+      : Runtime.getRuntime().availableProcessors();
+    final File workDir =
+      args.length >= 4 ? new File(args[3]) : Files.createTempDir();
+    final File datasetDir = args.length >= 5 ? new File(args[4]) : null;
+    try (Socket socket = new Socket(args[0], Integer.parseInt(args[1]))) {
+      final String name = InetAddress.getLocalHost().getHostName() + "-"
+        + threads + "-threads";
+      new Worker(socket, name,
+        new ScenarioCache(new File(workDir, "scenarios"), datasetDir),
+        new Simulation(threads, workDir)).run();
+    } catch (final IOException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
+  void run() throws IOException {
+    final ScheduledExecutorService heartbeat =
+      Executors.newSingleThreadScheduledExecutor(new ThreadFactoryBuilder()
+        .setDaemon(true).setNameFormat("worker-heartbeat").build());
+    heartbeat.scheduleWithFixedDelay(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          send(MessageType.HEARTBEAT, new byte[0]);
+        } catch (final IOException e) {
+          LOGGER.debug("Failed sending heartbeat.", e);
+        }
+      }
+    }, Coordinator.HEARTBEAT_INTERVAL, Coordinator.HEARTBEAT_INTERVAL,
+      TimeUnit.MILLISECONDS);
+    try {
+      final ByteArrayOutputStream hello = new ByteArrayOutputStream();
+      new DataOutputStream(hello).writeUTF(name);
+      send(MessageType.HELLO, hello.toByteArray());
+      send(MessageType.REQUEST, new byte[0]);
+      while (true) {
+        final MessageType type;
+        try {
+          type = Coordinator.readType(in);
+        } catch (final EOFException e) {
+          LOGGER.info("The coordinator closed the connection.");
+          return;
+        }
+        final byte[] payload = Coordinator.readPayload(in);
+        if (type != MessageType.TASK) {
+          throw new IOException("Unexpected message: " + type);
+        }
+        compute(payload);
+        send(MessageType.REQUEST, new byte[0]);
+      }
+    } finally {
+      heartbeat.shutdownNow();
+    }
+  }
+
+  void compute(byte[] payload) throws IOException {
+    final DataInputStream task =
+      new DataInputStream(new ByteArrayInputStream(payload));
+    final int id = task.readInt();
+    final ByteArrayOutputStream response = new ByteArrayOutputStream();
+    final DataOutputStream res = new DataOutputStream(response);
+    res.writeInt(id);
+    MessageType type;
+    try {
+      final SimTask simTask = SimTask.readFrom(task);
+      res.write(computer.compute(simTask, scenario(simTask)));
+      type = MessageType.RESULT;
+    } catch (final IOException | RuntimeException e) {
+      LOGGER.warn("Task {} failed.", id, e);
+      res.writeUTF(String.valueOf(e));
+      type = MessageType.FAILED;
+    }
+    send(type, response.toByteArray());
+  }
+
+  File scenario(SimTask task) throws IOException {
+    final File file =
+      scenarios.get(task.getScenarioHash(), task.getScenarioFileName());
+    if (file != null) {
+      return file;
+    }
+    final ByteArrayOutputStream request = new ByteArrayOutputStream();
+    new DataOutputStream(request).writeUTF(task.getScenarioHash());
+    send(MessageType.SCENARIO_REQUEST, request.toByteArray());
+    // the coordinator sends nothing else while a task is computed
+    final MessageType type = Coordinator.readType(in);
+    if (type != MessageType.SCENARIO) {
+      throw new IOException("Unexpected message: " + type);
+    }
+    final byte[] contents =
+      Coordinator.readScenarioPayload(Coordinator.readPayload(in));
+    if (contents == null) {
+      throw new IllegalStateException(
+        "The coordinator does not have scenario " + task.getScenarioHash());
+    }
+    return scenarios.put(task.getScenarioHash(), task.getScenarioFileName(),
+      contents);
+  }
+
+  void send(MessageType type, byte[] payload) throws IOException {
+    synchronized (out) {
+      Coordinator.write(out, type, payload);
+    }
+  }
+
+  interface TaskComputer {
+    // returns the result store records
+    byte[] compute(SimTask task, File scenario);
+  }
+
+  // the scenarios that are present on this worker, stored as
+  // <dir>/<hash>/<file name> such that the file name (which identifies the
+  // scenario in the results) is preserved
+  static class ScenarioCache {
+    final File directory;
+    @Nullable
+    final File dataset;
+    final Map<String, File> resident;
+
+    ScenarioCache(File dir, @Nullable File datasetDir) {
+      directory = dir;
+      dataset = datasetDir;
+      resident = new HashMap<>();
+      directory.mkdirs();
+      for (final File hashDir : directory.listFiles()) {
+        final File[] files = hashDir.listFiles();
+        if (files != null) {
+          for (final File f : files) {
+            resident.put(hashDir.getName() + "/" + f.getName(), f);
+          }
+        }
+      }
+    }
+
+    @Nullable
+    File get(String hash, String fileName) throws IOException {
+      final String key = hash + "/" + fileName;
+      if (!resident.containsKey(key) && dataset != null) {
+        final File candidate = new File(dataset, fileName);
+        if (candidate.exists()
+          && Files.hash(candidate, Hashing.sha256()).toString().equals(hash)) {
+          resident.put(key, candidate);
+        }
+      }
+      return resident.get(key);
+    }
+
+    File put(String hash, String fileName, byte[] contents)
+        throws IOException {
+      checkArgument(
+        Hashing.sha256().hashBytes(contents).toString().equals(hash),
+        "The contents of %s do not match hash %s.", fileName, hash);
+      final File hashDir = new File(directory, hash);
+      hashDir.mkdirs();
+      final File file = new File(hashDir, fileName);
+      Files.write(contents, file);
+      resident.put(hash + "/" + fileName, file);
+      return file;
+    }
+  }
+
+  // simulates the task using a worker local result store, returns the records
+  // of the simulations of the task
+  static class Simulation implements TaskComputer {
+    final int threads;
+    final File resultsDir;
+    final File storeDir;
+    final Collection<GPFunc<GpGlobal>> funcs;
+
+    Simulation(int numThreads, File workDir) {
+      threads = numThreads;
+      resultsDir = new File(workDir, "results");
+      storeDir = new File(workDir, "store");
+      funcs = new FunctionSet().create();
+    }
+
+    @Override
+    public byte[] compute(SimTask task, File scenario) {
+      final List<GPProgram<GpGlobal>> programs = new ArrayList<>();
+      for (final String prog : task.getPrograms()) {
+        programs.add(GPProgramParser.parseProgramFunc(prog, funcs));
+      }
+      final Gendreau06ObjectiveFunction objFunc =
+        GPEM17.parseObjFuncWeights(task.getObjFuncWeights());
+      final ExperimentResults results = Evaluate.execute(programs, false,
+        FileProvider.builder().add(scenario.toPath()), resultsDir, false,
+        task.getScenarioConverter(), false, task.getReauctOpt(), objFunc,
+        null, false, false, 0L, storeDir,
+        "--repetitions", "1", "--threads", Integer.toString(threads));
+      if (results == null) {
+        return new byte[0];
+      }
+
+      // results that were already in the local store (e.g. computed for a
+      // previous task) are not added again, therefore the records are looked
+      // up by key instead of reading the records that were appended
+      final Set<Long> seeds = new LinkedHashSet<>();
+      for (final SimulationResult r : results.getResults()) {
+        seeds.add(r.getSimArgs().getRandomSeed());
+      }
+      final String converterId =
+        ScenarioReader.converterId(task.getScenarioConverter());
+      final Set<HashCode> keys = new LinkedHashSet<>();
+      for (final GPProgram<GpGlobal> prog : programs) {
+        final String prefix = Evaluate.stKeyPrefix(prog, task.getReauctOpt(),
+          objFunc, converterId);
+        for (final long seed : seeds) {
+          keys.add(ResultStore.key(prefix, task.getScenarioHash(), seed));
+        }
+      }
+      return ResultStore.open(storeDir).readRecords(keys);
+    }
+  }
+}
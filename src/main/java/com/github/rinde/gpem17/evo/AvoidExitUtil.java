@@ -22,7 +22,21 @@ import java.security.Permission;
  * @author Rinde van Lon
  */
 public class AvoidExitUtil {
-  public static class ExitTrappedException extends SecurityException {}
+  public static class ExitTrappedException extends SecurityException {
+    final int status;
+
+    ExitTrappedException(int st) {
+      super("System.exit(" + st + ") was called.");
+      status = st;
+    }
+
+    /**
+     * @return The status that was passed to {@link System#exit(int)}.
+     */
+    public int getStatus() {
+      return status;
+    }
+  }
 
   public static void forbidSystemExitCall() {
     final SecurityManager securityManager = new SecurityManager() {
@@ -30,7 +44,10 @@ public class AvoidExitUtil {
       @Override
       public void checkPermission(Permission permission) {
         if (permission.getName().startsWith("exitVM")) {
-          throw new ExitTrappedException();
+          // the name of the permission is exitVM.<status>
+          final String name = permission.getName();
+          throw new ExitTrappedException(
+            Integer.parseInt(name.substring(name.lastIndexOf('.') + 1)));
         }
       }
     };
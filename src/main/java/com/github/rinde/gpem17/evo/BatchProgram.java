@@ -0,0 +1,605 @@
+/*
+ * Copyright (C) 2011-2016 Rinde van Lon, iMinds-DistriNet, KU Leuven
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.rinde.gpem17.evo;
+
+import java.io.Serializable;
+import java.lang.ref.WeakReference;
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+import javax.annotation.Nullable;
+
+import com.github.rinde.ecj.GPFunc;
+import com.github.rinde.ecj.GPFuncNode;
+import com.github.rinde.ecj.GPProgram;
+import com.github.rinde.ecj.GenericFunctions.Add;
+import com.github.rinde.ecj.GenericFunctions.Constant;
+import com.github.rinde.ecj.GenericFunctions.Div;
+import com.github.rinde.ecj.GenericFunctions.If4;
+import com.github.rinde.ecj.GenericFunctions.Max;
+import com.github.rinde.ecj.GenericFunctions.Min;
+import com.github.rinde.ecj.GenericFunctions.Mul;
+import com.github.rinde.ecj.GenericFunctions.Neg;
+import com.github.rinde.ecj.GenericFunctions.Pow;
+import com.github.rinde.ecj.GenericFunctions.Sub;
+import com.github.rinde.ecj.PriorityHeuristic;
+import com.github.rinde.evo4mas.common.GlobalStateObjectFunctions.Ado;
+import com.github.rinde.evo4mas.common.GlobalStateObjectFunctions.Mado;
+import com.github.rinde.evo4mas.common.GlobalStateObjectFunctions.Mido;
+import com.github.rinde.evo4mas.common.GlobalStateObjectFunctions.RouteLength;
+import com.github.rinde.evo4mas.common.GlobalStateObjectFunctions.TimeLeft;
+import com.github.rinde.rinsim.central.GlobalStateObject;
+import com.github.rinde.rinsim.central.GlobalStateObject.VehicleStateObject;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.primitives.Ints;
+
+/**
+ * A {@link GPProgram} compiled to a flat list of instructions in post-order,
+ * every instruction writes to its own register. The operators of
+ * {@link FunctionSet} are executed inline instead of via
+ * {@link GPFunc#execute(double[], Object)}, and the registers are reused by
+ * consecutive computations such that computing a program does not allocate.
+ * <p>
+ * An operator is only executed inline if this produces the same results as
+ * its {@link GPFunc#execute(double[], Object)} method for a set of probe
+ * values, otherwise the operator is executed via its function like the
+ * terminals.
+ * <p>
+ * Identical subtrees (same function and same arguments) are compiled into a
+ * single instruction, a program is thus represented as a DAG in which every
+ * distinct subexpression, including every terminal, is computed at most once
+ * per context. The instructions that only depend on route-level terminals
+ * ({@link #ROUTE_TERMINALS}) and constants are computed once per route when a
+ * bidder evaluates the insertion points of a route one by one. The route of a
+ * context is identified by the snapshot and the vehicle that the context
+ * exposes (see {@link #ROUTE_KEY_TYPES}): if these are the same objects as in
+ * the previous computation of the thread, the route-level terminals are not
+ * evaluated at all. For contexts without such a key the route-level terminals
+ * are evaluated, and the other route-level instructions are only recomputed if
+ * a terminal has a different value.
+ * @author Rinde van Lon
+ * @param <C> The context type.
+ */
+public final class BatchProgram<C> implements PriorityHeuristic<C>,
+    Serializable {
+  private static final long serialVersionUID = 7418903427541032977L;
+
+  enum Op {
+    CONST, CALL, ADD, SUB, MUL, DIV, POW, NEG, MIN, MAX, IF4;
+  }
+
+  /**
+   * Terminals that only depend on the route of the vehicle and the current
+   * time, not on the insertion point.
+   */
+  public static final ImmutableSet<Class<?>> ROUTE_TERMINALS =
+    ImmutableSet.<Class<?>>of(Ado.class, Mido.class, Mado.class,
+      RouteLength.class, TimeLeft.class);
+
+  /**
+   * The types of the parts of a context that determine the values of the
+   * route-level terminals: the snapshot (route and time) and the vehicle. The
+   * parts are obtained via the public methods without parameters that return
+   * these types.
+   */
+  public static final ImmutableSet<Class<?>> ROUTE_KEY_TYPES =
+    ImmutableSet.<Class<?>>of(GlobalStateObject.class,
+      VehicleStateObject.class);
+
+  static final double[] EMPTY = new double[0];
+  static final Method[] NO_KEY = new Method[0];
+
+  // Identical programs in a population share one compiled instance as long as
+  // it is in use. The id of a program is its string representation, which
+  // identifies the program as there is a single function set per context type.
+  static final Cache<String, BatchProgram<?>> COMPILED =
+    CacheBuilder.newBuilder().weakValues().build();
+  static final double[] PROBES =
+    new double[] {-2.5, -1, 0, .5, 1, 3, 10, Double.MAX_VALUE};
+
+  final String id;
+  final Op[] ops;
+  final GPFunc<C>[] funcs;
+  // register indices of the arguments of each instruction
+  final int[][] args;
+  final double[] constants;
+  // true if the instruction has the same value for all insertion points of a
+  // route
+  final boolean[] routeLevel;
+  final boolean[] routeTerminal;
+  final ImmutableSet<Class<?>> routeKeyTypes;
+  final int root;
+  transient ThreadLocal<Workspace> workspace;
+
+  BatchProgram(String progId, List<Op> opList, List<GPFunc<C>> funcList,
+      List<int[]> argList, List<Double> constantList, int rootRegister) {
+    this(progId, opList, funcList, argList, constantList, rootRegister,
+      ROUTE_TERMINALS, ROUTE_KEY_TYPES);
+  }
+
+  @SuppressWarnings("unchecked")
+  BatchProgram(String progId, List<Op> opList, List<GPFunc<C>> funcList,
+      List<int[]> argList, List<Double> constantList, int rootRegister,
+      Set<Class<?>> routeTerminalTypes, Set<Class<?>> keyTypes) {
+    id = progId;
+    routeKeyTypes = ImmutableSet.copyOf(keyTypes);
+    ops = opList.toArray(new Op[opList.size()]);
+    funcs = funcList.toArray(new GPFunc[funcList.size()]);
+    args = argList.toArray(new int[argList.size()][]);
+    constants = new double[constantList.size()];
+    routeLevel = new boolean[ops.length];
+    routeTerminal = new boolean[ops.length];
+    for (int i = 0; i < ops.length; i++) {
+      constants[i] = constantList.get(i);
+      if (ops[i] == Op.CONST) {
+        routeLevel[i] = true;
+      } else if (args[i].length == 0) {
+        routeLevel[i] = routeTerminalTypes.contains(funcs[i].getClass());
+        routeTerminal[i] = routeLevel[i];
+      } else if (Compiler.isOperator(funcs[i])) {
+        routeLevel[i] = true;
+        for (final int a : args[i]) {
+          routeLevel[i] &= routeLevel[a];
+        }
+      }
+    }
+    root = rootRegister;
+  }
+
+  /**
+   * Compiles the specified program.
+   * @param program The program.
+   * @param <C> The context type.
+   * @return The compiled program.
+   */
+  public static <C> BatchProgram<C> compile(GPProgram<C> program) {
+    @SuppressWarnings("unchecked")
+    final BatchProgram<C> compiled =
+      (BatchProgram<C>) COMPILED.getIfPresent(program.getId());
+    if (compiled != null) {
+      return compiled;
+    }
+    final BatchProgram<C> prog = doCompile(program);
+    COMPILED.put(program.getId(), prog);
+    return prog;
+  }
+
+  static <C> BatchProgram<C> doCompile(GPProgram<C> program) {
+    return doCompile(program, ROUTE_TERMINALS);
+  }
+
+  static <C> BatchProgram<C> doCompile(GPProgram<C> program,
+      Set<Class<?>> routeTerminalTypes) {
+    return doCompile(program, routeTerminalTypes, ROUTE_KEY_TYPES);
+  }
+
+  static <C> BatchProgram<C> doCompile(GPProgram<C> program,
+      Set<Class<?>> routeTerminalTypes, Set<Class<?>> keyTypes) {
+    final Compiler<C> compiler = new Compiler<>();
+    final int rootRegister = compiler.add(program.getRoot());
+    return new BatchProgram<>(program.getId(), compiler.ops, compiler.funcs,
+      compiler.args, compiler.constants, rootRegister, routeTerminalTypes,
+      keyTypes);
+  }
+
+  /**
+   * Compiles the heuristic if it is a {@link GPProgram}.
+   * @param heuristic The heuristic.
+   * @param <C> The context type.
+   * @return The compiled program or the heuristic itself.
+   */
+  public static <C> PriorityHeuristic<C> compileIfPossible(
+      PriorityHeuristic<C> heuristic) {
+    if (heuristic instanceof GPProgram) {
+      return compile((GPProgram<C>) heuristic);
+    }
+    return heuristic;
+  }
+
+  // does not allocate, this is called for every insertion point of every bid
+  @Override
+  public double compute(C context) {
+    final Workspace ws = workspace();
+    final double[] reg = ws.scalar;
+    // consecutive contexts are usually insertion points of the same route, the
+    // route-level instructions are then not recomputed
+    boolean sameRoute = ws.scalarValid;
+    ws.scalarValid = false;
+    final boolean keyed = ws.keyAccessors(context, routeKeyTypes).length > 0;
+    if (keyed) {
+      sameRoute &= ws.updateKey(context);
+    } else {
+      for (int i = 0; i < ops.length; i++) {
+        if (routeTerminal[i]) {
+          final double value = execute(i, reg, ws.inputs[i], context);
+          sameRoute &= Double.doubleToLongBits(value) == Double
+            .doubleToLongBits(reg[i]);
+          reg[i] = value;
+        }
+      }
+    }
+    for (int i = 0; i < ops.length; i++) {
+      if (!routeLevel[i] || !sameRoute && (keyed || !routeTerminal[i])) {
+        reg[i] = execute(i, reg, ws.inputs[i], context);
+      }
+    }
+    ws.scalarValid = true;
+    return reg[root];
+  }
+
+  // executes instruction i for a single context, input is used to pass the
+  // arguments to a function
+  double execute(int i, double[] reg, double[] input, C context) {
+    final int[] a = args[i];
+    switch (ops[i]) {
+    case CONST:
+      return constants[i];
+    case ADD:
+      return reg[a[0]] + reg[a[1]];
+    case SUB:
+      return reg[a[0]] - reg[a[1]];
+    case MUL:
+      return reg[a[0]] * reg[a[1]];
+    case DIV:
+      return div(reg[a[0]], reg[a[1]]);
+    case POW:
+      return Math.pow(reg[a[0]], reg[a[1]]);
+    case NEG:
+      return -reg[a[0]];
+    case MIN:
+      return Math.min(reg[a[0]], reg[a[1]]);
+    case MAX:
+      return Math.max(reg[a[0]], reg[a[1]]);
+    case IF4:
+      return reg[a[0]] < reg[a[1]] ? reg[a[2]] : reg[a[3]];
+    default:
+      for (int j = 0; j < a.length; j++) {
+        input[j] = reg[a[j]];
+      }
+      return funcs[i].execute(input, context);
+    }
+  }
+
+  /**
+   * Computes a canonical form of the program. Programs that only differ in
+   * the order of the operands of commutative operators or in subexpressions
+   * that only consist of constants have the same canonical form, these
+   * programs compute exactly the same values for every context.
+   * @return The canonical form.
+   */
+  public String canonicalForm() {
+    final String[] forms = new String[ops.length];
+    final boolean[] constant = new boolean[ops.length];
+    final double[] values = new double[ops.length];
+    for (int i = 0; i < ops.length; i++) {
+      final int[] a = args[i];
+      constant[i] = ops[i] != Op.CALL;
+      for (final int j : a) {
+        constant[i] &= constant[j];
+      }
+      if (constant[i]) {
+        values[i] = execute(i, values, new double[a.length], null);
+        forms[i] = Double.toString(values[i]);
+        continue;
+      }
+      final List<String> argForms = new ArrayList<>();
+      for (final int j : a) {
+        argForms.add(forms[j]);
+      }
+      if (ops[i] == Op.ADD || ops[i] == Op.MUL || ops[i] == Op.MIN
+        || ops[i] == Op.MAX) {
+        Collections.sort(argForms);
+      }
+      final StringBuilder sb = new StringBuilder();
+      if (!argForms.isEmpty()) {
+        sb.append('(');
+      }
+      sb.append(ops[i] == Op.CALL ? funcs[i].name() : ops[i].name());
+      for (final String f : argForms) {
+        sb.append(' ').append(f);
+      }
+      if (!argForms.isEmpty()) {
+        sb.append(')');
+      }
+      forms[i] = sb.toString();
+    }
+    return forms[root];
+  }
+
+  @Override
+  public String getId() {
+    return id;
+  }
+
+  /**
+   * @return The number of instructions.
+   */
+  public int size() {
+    return ops.length;
+  }
+
+  // registers are reused by consecutive computations of the same thread
+  Workspace workspace() {
+    if (workspace == null) {
+      synchronized (this) {
+        if (workspace == null) {
+          workspace = new ThreadLocal<>();
+        }
+      }
+    }
+    Workspace ws = workspace.get();
+    if (ws == null) {
+      ws = new Workspace(args);
+      workspace.set(ws);
+    }
+    return ws;
+  }
+
+  static final class Workspace {
+    // registers of a single context
+    final double[] scalar;
+    // true if scalar contains the registers of a completed computation
+    boolean scalarValid;
+    // per instruction, the arguments of a function call
+    final double[][] inputs;
+    // the context type of which the route key accessors are known
+    @Nullable
+    Class<?> contextType;
+    Method[] accessors;
+    // the route key of the previous computation, not kept alive by the
+    // workspace
+    WeakReference<?>[] key;
+
+    Workspace(int[][] args) {
+      scalar = new double[args.length];
+      inputs = new double[args.length][];
+      for (int i = 0; i < args.length; i++) {
+        inputs[i] = args[i].length == 0 ? EMPTY : new double[args[i].length];
+      }
+      accessors = NO_KEY;
+      key = new WeakReference<?>[0];
+    }
+
+    Method[] keyAccessors(@Nullable Object context, Set<Class<?>> keyTypes) {
+      if (context == null) {
+        return NO_KEY;
+      }
+      if (context.getClass() != contextType) {
+        contextType = context.getClass();
+        accessors = keyAccessorsOf(contextType, keyTypes);
+        key = new WeakReference<?>[accessors.length];
+      }
+      return accessors;
+    }
+
+    // returns true if the context has the same route key as the previous
+    // computation, allocates only when the key changes
+    boolean updateKey(Object context) {
+      boolean same = true;
+      for (int k = 0; k < accessors.length; k++) {
+        final Object part;
+        try {
+          part = accessors[k].invoke(context, (Object[]) null);
+        } catch (IllegalAccessException | InvocationTargetException e) {
+          throw new IllegalStateException(e);
+        }
+        if (part == null || key[k] == null || key[k].get() != part) {
+          same = false;
+          key[k] = part == null ? null : new WeakReference<>(part);
+        }
+      }
+      return same;
+    }
+  }
+
+  // for every key type a public method without parameters of the type that
+  // returns it, or no methods if the type does not have all parts of the key
+  static Method[] keyAccessorsOf(Class<?> type, Set<Class<?>> keyTypes) {
+    final List<Method> accessors = new ArrayList<>();
+    for (final Class<?> keyType : keyTypes) {
+      Method accessor = null;
+      for (final Method m : type.getMethods()) {
+        if (m.getParameterTypes().length == 0
+          && !Modifier.isStatic(m.getModifiers())
+          && keyType.isAssignableFrom(m.getReturnType())) {
+          accessor = m;
+          break;
+        }
+      }
+      if (accessor == null) {
+        return NO_KEY;
+      }
+      // e.g. a public method of a package private AutoValue class
+      accessor.setAccessible(true);
+      accessors.add(accessor);
+    }
+    return accessors.toArray(new Method[accessors.size()]);
+  }
+
+  // protected division
+  static double div(double x, double y) {
+    return y == 0d ? 1d : x / y;
+  }
+
+  static class Compiler<C> {
+    // the result of matchesKernel(..) per function type
+    static final Map<Class<?>, Boolean> KERNEL_MATCHES =
+      new ConcurrentHashMap<>();
+    // the result of isStateless(..) per function type
+    static final Map<Class<?>, Boolean> STATELESS = new ConcurrentHashMap<>();
+
+    final List<Op> ops = new ArrayList<>();
+    final List<GPFunc<C>> funcs = new ArrayList<>();
+    final List<int[]> args = new ArrayList<>();
+    final List<Double> constants = new ArrayList<>();
+    // maps the key of each distinct subexpression to its register
+    final Map<List<Object>, Integer> expressions = new HashMap<>();
+
+    // returns the register of the node
+    int add(GPFuncNode<C> node) {
+      final GPFunc<C> func = node.getFunction();
+      final List<GPFuncNode<C>> children = node.getChildren();
+      final int[] a = new int[children.size()];
+      for (int i = 0; i < a.length; i++) {
+        a[i] = add(children.get(i));
+      }
+      final Op op = opOf(func);
+      final double constant = op == Op.CONST ? func.execute(EMPTY, null) : 0d;
+
+      // as the arguments are already deduplicated, two subtrees are equal if
+      // and only if their keys are equal. Functions of the same type are
+      // only interchangeable if they have no state of their own (e.g. a
+      // field or a captured variable), otherwise the instance is compared.
+      final Object function;
+      if (op == Op.CONST) {
+        function = Op.CONST;
+      } else if (isStateless(func.getClass())) {
+        function = func.getClass();
+      } else {
+        function = func;
+      }
+      final List<Object> key = ImmutableList.<Object>of(function, constant,
+        Ints.asList(a));
+      final Integer existing = expressions.get(key);
+      if (existing != null) {
+        return existing;
+      }
+      ops.add(op);
+      funcs.add(func);
+      args.add(a);
+      constants.add(constant);
+      expressions.put(key, ops.size() - 1);
+      return ops.size() - 1;
+    }
+
+    // true if the type does not declare instance fields below GPFunc
+    static boolean isStateless(Class<?> type) {
+      Boolean stateless = STATELESS.get(type);
+      if (stateless == null) {
+        stateless = true;
+        Class<?> c = type;
+        while (c != null && c != GPFunc.class) {
+          for (final Field f : c.getDeclaredFields()) {
+            stateless &= Modifier.isStatic(f.getModifiers());
+          }
+          c = c.getSuperclass();
+        }
+        STATELESS.put(type, stateless);
+      }
+      return stateless;
+    }
+
+    // true for the generic functions, these don't use the context
+    static boolean isOperator(GPFunc<?> func) {
+      return func instanceof Add || func instanceof Sub || func instanceof Mul
+        || func instanceof Div || func instanceof Pow || func instanceof Neg
+        || func instanceof Min || func instanceof Max || func instanceof If4;
+    }
+
+    static Op opOf(GPFunc<?> func) {
+      final Op op;
+      if (func instanceof Constant) {
+        return Op.CONST;
+      } else if (func instanceof Add) {
+        op = Op.ADD;
+      } else if (func instanceof Sub) {
+        op = Op.SUB;
+      } else if (func instanceof Mul) {
+        op = Op.MUL;
+      } else if (func instanceof Div) {
+        op = Op.DIV;
+      } else if (func instanceof Pow) {
+        op = Op.POW;
+      } else if (func instanceof Neg) {
+        op = Op.NEG;
+      } else if (func instanceof Min) {
+        op = Op.MIN;
+      } else if (func instanceof Max) {
+        op = Op.MAX;
+      } else if (func instanceof If4) {
+        op = Op.IF4;
+      } else {
+        return Op.CALL;
+      }
+      final Class<?> type = func.getClass();
+      Boolean matches = KERNEL_MATCHES.get(type);
+      if (matches == null) {
+        matches = matchesKernel(func, op);
+        KERNEL_MATCHES.put(type, matches);
+      }
+      return matches ? op : Op.CALL;
+    }
+
+    // compares the kernel of the op with the function for all combinations
+    // of probe values
+    @SuppressWarnings("unchecked")
+    static <C> boolean matchesKernel(GPFunc<C> func, Op op) {
+      final int arity = func.getNumChildren();
+      final int[] idx = new int[arity];
+      final double[] input = new double[arity];
+      final List<Op> opList = new ArrayList<>();
+      final List<int[]> argList = new ArrayList<>();
+      final List<Double> constantList = new ArrayList<>();
+      final List<GPFunc<C>> funcList = new ArrayList<>();
+      final int[] a = new int[arity];
+      for (int i = 0; i < arity; i++) {
+        opList.add(Op.CONST);
+        argList.add(new int[0]);
+        funcList.add(null);
+        constantList.add(0d);
+        a[i] = i;
+      }
+      opList.add(op);
+      argList.add(a);
+      funcList.add(func);
+      constantList.add(0d);
+
+      while (true) {
+        for (int i = 0; i < arity; i++) {
+          input[i] = PROBES[idx[i]];
+          constantList.set(i, input[i]);
+        }
+        final BatchProgram<C> kernel = new BatchProgram<>("", opList,
+          funcList, argList, constantList, arity);
+        final double expected = func.execute(input.clone(), null);
+        if (Double.compare(expected, kernel.compute((C) null)) != 0) {
+          return false;
+        }
+        // next combination
+        int i = 0;
+        while (i < arity && ++idx[i] == PROBES.length) {
+          idx[i] = 0;
+          i++;
+        }
+        if (i == arity) {
+          return true;
+        }
+      }
+    }
+  }
+}
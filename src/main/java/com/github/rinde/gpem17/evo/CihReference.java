@@ -107,6 +107,7 @@ public class CihReference {
       false,
       false,
       0,
+      new File(Evaluate.RESULT_STORE_DIR),
       new String[] {"--repetitions", "1"});
 
     File statsLog = new File(resDir, "best-stats.csv");
@@ -0,0 +1,88 @@
+/*
+ * Copyright (C) 2011-2016 Rinde van Lon, iMinds-DistriNet, KU Leuven
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.rinde.gpem17.evo;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import java.util.Collection;
+
+/**
+ * Determines the number of simulations per composite task from the measured
+ * computation time of a simulation. Tasks are at most as long as the target
+ * duration. When the number of workers is known, tasks get smaller as the
+ * remaining work decreases (guided self-scheduling) such that no worker is
+ * left with a large task at the end of a generation.
+ * @author Rinde van Lon
+ */
+class CompositeSizer {
+  // the weight of the latest generation in the running average
+  static final double SMOOTHING = .5;
+  // the remaining work is divided in this many tasks per worker
+  static final int TASKS_PER_WORKER = 2;
+
+  final long targetTaskMs;
+  double simulationMs;
+  boolean measured;
+
+  CompositeSizer(long targetMs) {
+    checkArgument(targetMs > 0);
+    targetTaskMs = targetMs;
+  }
+
+  /**
+   * @param maxSize The maximum size.
+   * @return The size of a task such that it takes about the target duration.
+   */
+  int size(int maxSize) {
+    if (!measured) {
+      return maxSize;
+    }
+    final long size = Math.round(targetTaskMs / Math.max(simulationMs, 1d));
+    return (int) Math.max(1, Math.min(maxSize, size));
+  }
+
+  /**
+   * @param maxSize The maximum size.
+   * @param remaining The number of simulations that are not yet in a task.
+   * @param numWorkers The number of workers.
+   * @return The size of the next task.
+   */
+  int size(int maxSize, int remaining, int numWorkers) {
+    final int share = (int) Math.ceil(
+      (double) remaining / (TASKS_PER_WORKER * Math.max(numWorkers, 1)));
+    return Math.max(1, Math.min(size(maxSize), share));
+  }
+
+  /**
+   * Updates the average computation time of a simulation.
+   * @param compTimes The computation times of simulations in ms.
+   */
+  void update(Collection<Long> compTimes) {
+    if (compTimes.isEmpty()) {
+      return;
+    }
+    double time = 0;
+    for (final long t : compTimes) {
+      time += (double) t / compTimes.size();
+    }
+    if (measured) {
+      simulationMs = SMOOTHING * time + (1 - SMOOTHING) * simulationMs;
+    } else {
+      simulationMs = time;
+      measured = true;
+    }
+  }
+}
@@ -0,0 +1,120 @@
+/*
+ * Copyright (C) 2011-2016 Rinde van Lon, iMinds-DistriNet, KU Leuven
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.rinde.gpem17.evo;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import com.github.rinde.gpem17.GPEM17;
+import com.github.rinde.rinsim.pdptw.common.StatisticsDTO;
+import com.github.rinde.rinsim.scenario.gendreau06.Gendreau06ObjectiveFunction;
+import com.google.common.collect.ImmutableList;
+
+/**
+ * The costs of a single program summed over all scenarios it was evaluated
+ * on: the number of invalid simulations, the travel time, tardiness and
+ * overtime, and the total cost for each of a list of objective functions.
+ * This allows to score a program under different weights using the results of
+ * a single simulation run.
+ * @author Rinde van Lon
+ */
+class CostVector {
+  final String program;
+  final ImmutableList<Gendreau06ObjectiveFunction> objectives;
+  final double[] costs;
+  int invalid;
+  double travelTime;
+  double tardiness;
+  double overTime;
+  int paretoRank;
+
+  CostVector(String prog, ImmutableList<Gendreau06ObjectiveFunction> objs) {
+    program = prog;
+    objectives = objs;
+    costs = new double[objs.size()];
+  }
+
+  void add(StatisticsDTO stats) {
+    if (!GPEM17.OBJ_FUNC.isValidResult(stats)) {
+      invalid++;
+    }
+    travelTime += GPEM17.OBJ_FUNC.travelTime(stats);
+    tardiness += GPEM17.OBJ_FUNC.tardiness(stats);
+    overTime += GPEM17.OBJ_FUNC.overTime(stats);
+    for (int i = 0; i < costs.length; i++) {
+      costs[i] += objectives.get(i).computeCost(stats);
+    }
+  }
+
+  // all objectives are minimized
+  boolean dominates(CostVector o) {
+    final double[] a = paretoObjectives();
+    final double[] b = o.paretoObjectives();
+    boolean better = false;
+    for (int i = 0; i < a.length; i++) {
+      if (a[i] > b[i]) {
+        return false;
+      }
+      better |= a[i] < b[i];
+    }
+    return better;
+  }
+
+  double[] paretoObjectives() {
+    return new double[] {invalid, travelTime, tardiness, overTime};
+  }
+
+  /**
+   * Sets the Pareto rank of all vectors using non-dominated sorting: vectors
+   * that are not dominated by any other vector get rank 0, vectors that are
+   * only dominated by rank 0 vectors get rank 1, etc.
+   * @param vectors The vectors to rank.
+   */
+  static void rank(List<CostVector> vectors) {
+    final int n = vectors.size();
+    final int[] dominatedByCount = new int[n];
+    final List<List<Integer>> dominates = new ArrayList<>();
+    List<Integer> front = new ArrayList<>();
+    for (int i = 0; i < n; i++) {
+      dominates.add(new ArrayList<Integer>());
+      for (int j = 0; j < n; j++) {
+        if (vectors.get(i).dominates(vectors.get(j))) {
+          dominates.get(i).add(j);
+        } else if (vectors.get(j).dominates(vectors.get(i))) {
+          dominatedByCount[i]++;
+        }
+      }
+      if (dominatedByCount[i] == 0) {
+        front.add(i);
+      }
+    }
+    int rank = 0;
+    while (!front.isEmpty()) {
+      final List<Integer> next = new ArrayList<>();
+      for (final int i : front) {
+        vectors.get(i).paretoRank = rank;
+        for (final int j : dominates.get(i)) {
+          dominatedByCount[j]--;
+          if (dominatedByCount[j] == 0) {
+            next.add(j);
+          }
+        }
+      }
+      front = next;
+      rank++;
+    }
+  }
+}
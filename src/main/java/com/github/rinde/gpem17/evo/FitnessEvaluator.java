@@ -19,6 +19,7 @@ import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Verify.verify;
 
 import java.io.File;
+import java.io.IOException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.ArrayList;
@@ -30,6 +31,8 @@ import java.util.Map;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
+import javax.annotation.Nullable;
+
 import com.github.rinde.ecj.BaseEvaluator;
 import com.github.rinde.ecj.GPBaseNode;
 import com.github.rinde.ecj.GPComputationResult;
@@ -38,8 +41,11 @@ import com.github.rinde.ecj.GPProgramParser;
 import com.github.rinde.evo4mas.common.GpGlobal;
 import com.github.rinde.gpem17.GPEM17;
 import com.github.rinde.gpem17.GPEM17.ReauctOpt;
+import com.github.rinde.gpem17.eval.Coordinator;
 import com.github.rinde.gpem17.eval.Evaluate;
+import com.github.rinde.gpem17.eval.ResultStore;
 import com.github.rinde.gpem17.eval.SimResult;
+import com.github.rinde.gpem17.eval.SimTask;
 import com.github.rinde.rinsim.core.model.time.TimeModel;
 import com.github.rinde.rinsim.experiment.Experiment.SimulationResult;
 import com.github.rinde.rinsim.experiment.ExperimentResults;
@@ -50,9 +56,14 @@ import com.github.rinde.rinsim.scenario.Scenario;
 import com.github.rinde.rinsim.scenario.StopConditions;
 import com.github.rinde.rinsim.scenario.gendreau06.Gendreau06ObjectiveFunction;
 import com.google.common.base.Function;
+import com.google.common.base.Splitter;
 import com.google.common.collect.ComparisonChain;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ListMultimap;
+import com.google.common.collect.MultimapBuilder;
+import com.google.common.collect.Multimaps;
 import com.google.common.collect.SetMultimap;
+import com.google.common.hash.Hashing;
 
 import ec.EvolutionState;
 import ec.util.Parameter;
@@ -64,7 +75,7 @@ import ec.util.Parameter;
 public class FitnessEvaluator extends BaseEvaluator {
 
   enum Properties {
-    DISTRIBUTED, COMPOSITE_SIZE, NUM_SCENARIOS_PER_GEN, NUM_SCENARIOS_IN_LAST_GEN, REAUCT_OPT, USE_DIFFERENT_SCENARIOS_IN_EVERY_GENERATION, SCENARIOS_REGEX, SCENARIOS_DIR, OBJ_FUNC_WEIGHTS;
+    DISTRIBUTED, COMPOSITE_SIZE, NUM_SCENARIOS_PER_GEN, NUM_SCENARIOS_IN_LAST_GEN, REAUCT_OPT, USE_DIFFERENT_SCENARIOS_IN_EVERY_GENERATION, SCENARIOS_REGEX, SCENARIOS_DIR, OBJ_FUNC_WEIGHTS, THREADS, RESULT_STORE, OBJ_FUNC_WEIGHT_SETS, ADAPTIVE_SCENARIOS, COORDINATOR_PORT, COMPOSITE_TASK_MS;
 
     public String toString() {
       return name().toLowerCase();
@@ -79,13 +90,26 @@ public class FitnessEvaluator extends BaseEvaluator {
 
   ImmutableList<Path> paths;
   boolean distributed;
+  int threads;
   int compositeSize;
   int numScenariosPerGen;
   int numScenariosInLastGen;
   boolean useDifferentScenariosEveryGen;
   ReauctOpt reauctOpt;
+  String objFuncWeights;
   Gendreau06ObjectiveFunction objectiveFunction;
   String scenariosDir;
+  @Nullable
+  File resultStoreDir;
+  ImmutableList<String> weightSets;
+  ImmutableList<Gendreau06ObjectiveFunction> weightSetObjectives;
+  int numAdaptiveScenarios;
+  @Nullable
+  ScenarioSampler sampler;
+  @Nullable
+  Coordinator coordinator;
+  @Nullable
+  CompositeSizer sizer;
 
   public FitnessEvaluator() {}
 
@@ -94,6 +118,10 @@ public class FitnessEvaluator extends BaseEvaluator {
     distributed =
       state.parameters.getBoolean(base.push(Properties.DISTRIBUTED.toString()),
         null, false);
+    // 0 means all available processors, only used in local mode
+    threads =
+      state.parameters.getIntWithDefault(
+        base.push(Properties.THREADS.toString()), null, 0);
     compositeSize =
       state.parameters.getInt(
         base.push(Properties.COMPOSITE_SIZE.toString()), null);
@@ -109,7 +137,7 @@ public class FitnessEvaluator extends BaseEvaluator {
           Properties.USE_DIFFERENT_SCENARIOS_IN_EVERY_GENERATION.toString()),
         null, true);
 
-    String objFuncWeights =
+    objFuncWeights =
       state.parameters.getString(
         base.push(Properties.OBJ_FUNC_WEIGHTS.toString()), null);
 
@@ -142,6 +170,53 @@ public class FitnessEvaluator extends BaseEvaluator {
       "The path '%s' does not exist or is not a directory.", f);
 
     paths = getScenarioPaths(scenariosDir, regex);
+
+    // optional, results of previously evaluated programs are reused
+    String store = state.parameters.getString(
+      base.push(Properties.RESULT_STORE.toString()), null);
+    resultStoreDir = store == null ? null : new File(store);
+
+    // optional, e.g. '1-1-1,.5-1-1', the costs of every program for each of
+    // these weights are logged in addition to its fitness
+    String sets = state.parameters.getString(
+      base.push(Properties.OBJ_FUNC_WEIGHT_SETS.toString()), null);
+    weightSets = sets == null
+      ? ImmutableList.<String>of()
+      : ImmutableList.copyOf(Splitter.on(',').trimResults().split(sets));
+    ImmutableList.Builder<Gendreau06ObjectiveFunction> objs =
+      ImmutableList.builder();
+    for (String weights : weightSets) {
+      objs.add(GPEM17.parseObjFuncWeights(weights));
+    }
+    weightSetObjectives = objs.build();
+
+    // optional, when > 0 this number of scenarios is selected in every
+    // generation (except the last) by a ScenarioSampler instead of using
+    // consecutive slices of the dataset
+    numAdaptiveScenarios = state.parameters.getIntWithDefault(
+      base.push(Properties.ADAPTIVE_SCENARIOS.toString()), null, 0);
+    sampler = numAdaptiveScenarios > 0 ? new ScenarioSampler(paths) : null;
+
+    // optional, when set simulations are computed by workers (see Worker)
+    // that connect to a coordinator on this port, the results are collected
+    // in the result store
+    int port = state.parameters.getIntWithDefault(
+      base.push(Properties.COORDINATOR_PORT.toString()), null, -1);
+    if (port >= 0) {
+      checkArgument(!distributed && resultStoreDir != null,
+        "%s can not be combined with %s and requires %s.",
+        base.push(Properties.COORDINATOR_PORT.toString()),
+        base.push(Properties.DISTRIBUTED.toString()),
+        base.push(Properties.RESULT_STORE.toString()));
+      coordinator = Coordinator.start(port);
+      System.out.println("Accepting workers on port " + coordinator.getPort());
+    }
+
+    // optional, when > 0 the size of composite tasks is determined such that
+    // a task takes about this many ms, composite_size is the maximum size
+    long compositeTaskMs = state.parameters.getLongWithDefault(
+      base.push(Properties.COMPOSITE_TASK_MS.toString()), null, 0);
+    sizer = compositeTaskMs > 0 ? new CompositeSizer(compositeTaskMs) : null;
   }
 
   public static ImmutableList<Path> getScenarioPaths(String dir, String regex) {
@@ -184,6 +259,16 @@ public class FitnessEvaluator extends BaseEvaluator {
     return ImmutableList.copyOf(ps);
   }
 
+  @Override
+  public void closeContacts(EvolutionState state, int result) {
+    super.closeContacts(state, result);
+    // frees the port for the next evolution in this JVM
+    if (coordinator != null) {
+      coordinator.close();
+      coordinator = null;
+    }
+  }
+
   @Override
   public void evaluatePopulation(EvolutionState state) {
     SetMultimap<GPNodeHolder, IndividualHolder> mapping =
@@ -203,15 +288,24 @@ public class FitnessEvaluator extends BaseEvaluator {
       compSize = compositeSize;
       toIndex = fromIndex + numScenariosPerGen;
     }
+    List<Path> scenarioPaths;
+    if (sampler != null && state.generation != state.numGenerations - 1) {
+      scenarioPaths = sampler.select(numAdaptiveScenarios, state.generation);
+    } else {
+      scenarioPaths = paths.subList(fromIndex, toIndex);
+    }
     System.out.println(scenariosDir + " " +
-      paths.subList(fromIndex, toIndex).toString().replace(scenariosDir + "/",
-        ""));
+      scenarioPaths.toString().replace(scenariosDir + "/", ""));
 
     String[] args;
     if (distributed) {
-
+      // JPPF uses a single size, the number of nodes is unknown
+      int size = sizer == null ? compSize : sizer.size(compSize);
       args = new String[] {"--jppf", "--repetitions", "1", "--composite-size",
-        Integer.toString(compSize)};
+        Integer.toString(size)};
+    } else if (threads > 0) {
+      args = new String[] {"--repetitions", "1", "--threads",
+        Integer.toString(threads)};
     } else {
       args = new String[] {"--repetitions", "1"};
     }
@@ -219,18 +313,34 @@ public class FitnessEvaluator extends BaseEvaluator {
       new File(((StatsLogger) state.statistics).experimentDirectory,
         "generation" + state.generation);
 
+    // equivalent programs (see BatchProgram.canonicalForm()) are simulated
+    // only once, their results are shared
     List<GPProgram<GpGlobal>> programs = new ArrayList<>();
     List<GPNodeHolder> nodes = ImmutableList.copyOf(mapping.keySet());
+    ListMultimap<String, GPNodeHolder> equivalentNodes =
+      MultimapBuilder.linkedHashKeys().arrayListValues().build();
     for (GPNodeHolder node : nodes) {
       final GPProgram<GpGlobal> prog = GPProgramParser
         .convertToGPProgram((GPBaseNode<GpGlobal>) node.trees[0].child);
-      programs.add(prog);
+      final String form = BatchProgram.compile(prog).canonicalForm();
+      if (!equivalentNodes.containsKey(form)) {
+        programs.add(prog);
+      }
+      equivalentNodes.put(form, node);
+    }
+    if (programs.size() < nodes.size()) {
+      System.out.println("Simulating " + programs.size() + " of "
+        + nodes.size() + " programs, the others are equivalent.");
+    }
+
+    if (coordinator != null) {
+      executeOnWorkers(programs, scenarioPaths, compSize);
     }
 
     ExperimentResults results = Evaluate.execute(
       programs,
       false,
-      FileProvider.builder().add(paths.subList(fromIndex, toIndex)),
+      FileProvider.builder().add(scenarioPaths),
       generationDir,
       false,
       Converter.INSTANCE,
@@ -241,21 +351,37 @@ public class FitnessEvaluator extends BaseEvaluator {
       false,
       false,
       0L,
+      resultStoreDir,
       args);
 
-    Map<MASConfiguration, GPNodeHolder> configMapping = new LinkedHashMap<>();
+    Map<MASConfiguration, List<GPNodeHolder>> configMapping =
+      new LinkedHashMap<>();
     ImmutableList<MASConfiguration> configs =
       results.getConfigurations().asList();
+    List<List<GPNodeHolder>> groups =
+      new ArrayList<>(Multimaps.asMap(equivalentNodes).values());
 
-    verify(configs.size() == nodes.size());
+    verify(configs.size() == groups.size());
     for (int i = 0; i < configs.size(); i++) {
-      configMapping.put(configs.get(i), nodes.get(i));
+      configMapping.put(configs.get(i), groups.get(i));
+    }
+
+    Map<GPNodeHolder, CostVector> costVectors = new LinkedHashMap<>();
+    if (!weightSets.isEmpty()) {
+      for (GPNodeHolder node : nodes) {
+        costVectors.put(node, new CostVector(node.string, weightSetObjectives));
+      }
     }
 
+    ListMultimap<String, StatisticsDTO> scenarioStats =
+      MultimapBuilder.linkedHashKeys().arrayListValues().build();
     List<GPComputationResult> convertedResults = new ArrayList<>();
     for (SimulationResult sr : results.getResults()) {
       StatisticsDTO stats =
         ((SimResult) sr.getResultObject()).getStats();
+      Scenario scen = sr.getSimArgs().getScenario();
+      scenarioStats.put(scen.getProblemClass().getId() + "-"
+        + scen.getProblemInstanceId(), stats);
       double cost = objectiveFunction.computeCost(stats);
       float fitness = (float) cost;
       if (!objectiveFunction.isValidResult(stats)) {
@@ -263,16 +389,85 @@ public class FitnessEvaluator extends BaseEvaluator {
         // we reduce based on how far the simulation actually got.
         fitness = Float.MAX_VALUE - stats.simulationTime;
       }
-      String id = configMapping.get(sr.getSimArgs().getMasConfig()).string;
-      convertedResults.add(SingleResult.create((float) fitness, id, sr));
+      for (GPNodeHolder node : configMapping
+        .get(sr.getSimArgs().getMasConfig())) {
+        if (!weightSets.isEmpty()) {
+          costVectors.get(node).add(stats);
+        }
+        convertedResults.add(
+          SingleResult.create((float) fitness, node.string, sr));
+      }
+    }
+    if (!weightSets.isEmpty()) {
+      List<CostVector> vectors = new ArrayList<>(costVectors.values());
+      CostVector.rank(vectors);
+      ((StatsLogger) state.statistics).appendCostVectors(state.generation,
+        weightSets, vectors);
+    }
+    if (sizer != null) {
+      List<Long> compTimes = new ArrayList<>();
+      for (StatisticsDTO stats : scenarioStats.values()) {
+        compTimes.add(stats.computationTime);
+      }
+      sizer.update(compTimes);
+    }
+    if (sampler != null) {
+      for (String scen : scenarioStats.keySet()) {
+        List<Double> costs = new ArrayList<>();
+        List<Long> compTimes = new ArrayList<>();
+        for (StatisticsDTO stats : scenarioStats.get(scen)) {
+          costs.add(objectiveFunction.computeCost(stats));
+          compTimes.add(stats.computationTime);
+        }
+        sampler.update(scen, costs, compTimes);
+      }
     }
     processResults(state, mapping, convertedResults);
   }
 
+  // the results of the workers are added to the result store, the subsequent
+  // local execution takes them from there
+  void executeOnWorkers(List<GPProgram<GpGlobal>> programs,
+      List<Path> scenarioPaths, int compSize) {
+    List<SimTask> tasks = new ArrayList<>();
+    Map<String, byte[]> scenarios = new LinkedHashMap<>();
+    int remaining = programs.size() * scenarioPaths.size();
+    for (Path scenario : scenarioPaths) {
+      byte[] contents;
+      try {
+        contents = java.nio.file.Files.readAllBytes(scenario);
+      } catch (IOException e) {
+        throw new IllegalStateException(e);
+      }
+      String hash = Hashing.sha256().hashBytes(contents).toString();
+      scenarios.put(hash, contents);
+      int from = 0;
+      while (from < programs.size()) {
+        int size = sizer == null ? compSize
+          : sizer.size(compSize, remaining, coordinator.getNumWorkers());
+        List<String> ids = new ArrayList<>();
+        for (GPProgram<GpGlobal> prog : programs.subList(from,
+          Math.min(from + size, programs.size()))) {
+          ids.add(prog.getId());
+        }
+        from += ids.size();
+        remaining -= ids.size();
+        tasks.add(SimTask.create(ids, scenario.getFileName().toString(),
+          hash, reauctOpt, objFuncWeights, Converter.INSTANCE));
+      }
+    }
+    int completed =
+      coordinator.execute(tasks, scenarios, ResultStore.open(resultStoreDir));
+    System.out.println(coordinator.getNumWorkers() + " workers completed "
+      + completed + " of " + tasks.size() + " tasks.");
+  }
+
   @Override
   protected int expectedNumberOfResultsPerGPIndividual(EvolutionState state) {
     if (state.generation == state.numGenerations - 1) {
       return numScenariosInLastGen;
+    } else if (sampler != null) {
+      return numAdaptiveScenarios;
     }
     return numScenariosPerGen;
   }
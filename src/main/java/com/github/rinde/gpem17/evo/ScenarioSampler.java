@@ -0,0 +1,176 @@
+/*
+ * Copyright (C) 2011-2016 Rinde van Lon, iMinds-DistriNet, KU Leuven
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.rinde.gpem17.evo;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ListMultimap;
+import com.google.common.collect.MultimapBuilder;
+import com.google.common.primitives.Doubles;
+
+/**
+ * Selects the scenarios that are used for fitness evaluation in a generation.
+ * Scenarios on which the fitness of the individuals of a population differs a
+ * lot are preferred, as are scenarios that are cheap to simulate. The
+ * selection is stratified on the dynamism and urgency of the scenarios such
+ * that mixed datasets remain mixed. Scenarios that were never evaluated are
+ * selected first, in dataset order.
+ * @author Rinde van Lon
+ */
+class ScenarioSampler {
+  // the weight of the latest generation in the running averages
+  static final double SMOOTHING = .5;
+  // the score of a scenario increases with every generation it is not used
+  static final double AGING = .1;
+
+  final ImmutableList<Path> scenarios;
+  final Map<String, Integer> indices;
+  final ListMultimap<String, Integer> strata;
+  // coefficient of variation of the costs of the individuals
+  final double[] variation;
+  // computation time of a simulation in ms
+  final double[] computationTime;
+  final int[] lastUsed;
+  final boolean[] evaluated;
+
+  ScenarioSampler(List<Path> paths) {
+    scenarios = ImmutableList.copyOf(paths);
+    indices = new LinkedHashMap<>();
+    strata = MultimapBuilder.linkedHashKeys().arrayListValues().build();
+    for (int i = 0; i < scenarios.size(); i++) {
+      final String fileName = scenarios.get(i).getFileName().toString();
+      indices.put(fileName.replace(".scen", ""), i);
+      final Matcher m =
+        FitnessEvaluator.CAPTURE_SCENARIO_NAME_PARTS.matcher(fileName);
+      strata.put(m.matches() ? m.group(1) + "-" + m.group(2) : "", i);
+    }
+    variation = new double[scenarios.size()];
+    computationTime = new double[scenarios.size()];
+    lastUsed = new int[scenarios.size()];
+    evaluated = new boolean[scenarios.size()];
+  }
+
+  /**
+   * Selects scenarios, the number of scenarios of each stratum is
+   * proportional to the size of the stratum.
+   * @param num The number of scenarios to select.
+   * @param generation The current generation.
+   * @return The selected scenarios in dataset order.
+   */
+  ImmutableList<Path> select(int num, final int generation) {
+    checkArgument(num > 0 && num <= scenarios.size(),
+      "Can not select %s out of %s scenarios.", num, scenarios.size());
+    final List<String> keys = new ArrayList<>(strata.keySet());
+    final int[] counts = new int[keys.size()];
+    final double[] remainders = new double[keys.size()];
+    int total = 0;
+    for (int s = 0; s < keys.size(); s++) {
+      final double exact =
+        (double) num * strata.get(keys.get(s)).size() / scenarios.size();
+      counts[s] = (int) exact;
+      remainders[s] = exact - counts[s];
+      total += counts[s];
+    }
+    // largest remainder, ties in favor of the first stratum
+    while (total < num) {
+      int best = 0;
+      for (int s = 1; s < keys.size(); s++) {
+        if (remainders[s] > remainders[best]) {
+          best = s;
+        }
+      }
+      counts[best]++;
+      remainders[best] = -1;
+      total++;
+    }
+
+    final List<Integer> selected = new ArrayList<>();
+    for (int s = 0; s < keys.size(); s++) {
+      final List<Integer> candidates = new ArrayList<>(strata.get(keys.get(s)));
+      // stable sort keeps dataset order for equal scores
+      Collections.sort(candidates, new Comparator<Integer>() {
+        @Override
+        public int compare(Integer a, Integer b) {
+          return Doubles.compare(score(b, generation), score(a, generation));
+        }
+      });
+      selected.addAll(candidates.subList(0, counts[s]));
+    }
+    Collections.sort(selected);
+
+    final ImmutableList.Builder<Path> paths = ImmutableList.builder();
+    for (final int i : selected) {
+      lastUsed[i] = generation;
+      paths.add(scenarios.get(i));
+    }
+    return paths.build();
+  }
+
+  double score(int i, int generation) {
+    if (!evaluated[i]) {
+      return Double.POSITIVE_INFINITY;
+    }
+    return variation[i] / Math.max(computationTime[i], 1d)
+      * (1d + AGING * (generation - lastUsed[i]));
+  }
+
+  /**
+   * Updates the statistics of a scenario.
+   * @param scenarioName The file name of the scenario without extension.
+   * @param costs The cost of every individual on the scenario.
+   * @param compTimes The computation time of every simulation in ms.
+   */
+  void update(String scenarioName, Collection<Double> costs,
+      Collection<Long> compTimes) {
+    final Integer i = indices.get(scenarioName);
+    if (i == null || costs.isEmpty()) {
+      return;
+    }
+    double mean = 0;
+    for (final double c : costs) {
+      mean += c / costs.size();
+    }
+    double var = 0;
+    for (final double c : costs) {
+      var += (c - mean) * (c - mean) / costs.size();
+    }
+    final double cv = mean == 0 ? 0 : Math.sqrt(var) / Math.abs(mean);
+    double time = 0;
+    for (final long t : compTimes) {
+      time += (double) t / compTimes.size();
+    }
+    if (evaluated[i]) {
+      variation[i] = SMOOTHING * cv + (1 - SMOOTHING) * variation[i];
+      computationTime[i] =
+        SMOOTHING * time + (1 - SMOOTHING) * computationTime[i];
+    } else {
+      variation[i] = cv;
+      computationTime[i] = time;
+      evaluated[i] = true;
+    }
+  }
+}
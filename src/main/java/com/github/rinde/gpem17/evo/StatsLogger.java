@@ -19,6 +19,7 @@ import static com.google.common.base.Preconditions.checkArgument;
 
 import java.io.File;
 import java.io.IOException;
+import java.nio.file.FileAlreadyExistsException;
 import java.nio.file.Path;
 import java.nio.file.Paths;
 import java.util.ArrayList;
@@ -58,6 +59,7 @@ public class StatsLogger extends GPStats {
   static final Joiner COMMA_JOINER = Joiner.on(",");
   File experimentDirectory;
   File statsLog;
+  File costsLog;
   final long startTime;
 
   public StatsLogger() {
@@ -167,6 +169,43 @@ public class StatsLogger extends GPStats {
     }
   }
 
+  /**
+   * Appends the cost vectors of all programs of a generation to
+   * <code>costs.csv</code>.
+   * @param generation The generation.
+   * @param weightSets The names of the weight sets in the order of the costs
+   *          in the vectors.
+   * @param vectors The cost vectors.
+   */
+  void appendCostVectors(int generation, List<String> weightSets,
+      List<CostVector> vectors) {
+    final StringBuilder sb = new StringBuilder();
+    if (costsLog == null) {
+      costsLog = new File(experimentDirectory, "costs.csv");
+      COMMA_JOINER.appendTo(sb, "generation", "pareto_rank", "invalid",
+        "travel_time", "tardiness", "over_time");
+      for (final String ws : weightSets) {
+        sb.append(",cost_").append(ws);
+      }
+      sb.append(",program").append(System.lineSeparator());
+    }
+    for (final CostVector v : vectors) {
+      COMMA_JOINER.appendTo(sb, generation, v.paretoRank, v.invalid,
+        v.travelTime, v.tardiness, v.overTime);
+      for (final double c : v.costs) {
+        sb.append(',').append(c);
+      }
+      // programs contain spaces, no commas
+      sb.append(",\"").append(v.program).append('"')
+        .append(System.lineSeparator());
+    }
+    try {
+      Files.append(sb.toString(), costsLog, Charsets.UTF_8);
+    } catch (IOException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+
   public void printMore(EvolutionState state, Individual best,
       List<GPComputationResult> bestResults) {
 
@@ -239,6 +278,8 @@ public class StatsLogger extends GPStats {
       java.nio.file.Files.createSymbolicLink(
         latest,
         experimentDirectory.getAbsoluteFile().toPath());
+    } catch (final FileAlreadyExistsException e) {
+      // another evolution that runs concurrently (see Train) just created it
     } catch (final IOException e) {
       throw new IllegalStateException(e);
     }
@@ -0,0 +1,208 @@
+/*
+ * Copyright (C) 2011-2016 Rinde van Lon, iMinds-DistriNet, KU Leuven
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.rinde.gpem17;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.apache.commons.math3.random.RandomGenerator;
+import org.junit.Test;
+
+import com.github.rinde.gpem17.AdaptiveSolverBudgets.AdaptiveSolver;
+import com.github.rinde.gpem17.AdaptiveSolverBudgets.Load;
+import com.github.rinde.gpem17.AdaptiveSolverBudgets.LoadUser;
+import com.github.rinde.rinsim.central.GlobalStateObject;
+import com.github.rinde.rinsim.central.rt.RealtimeSolver;
+import com.github.rinde.rinsim.central.rt.Scheduler;
+import com.github.rinde.rinsim.core.SimulatorAPI;
+import com.github.rinde.rinsim.pdptw.common.AddVehicleEvent;
+import com.github.rinde.rinsim.scenario.TimedEventHandler;
+import com.github.rinde.rinsim.util.StochasticSupplier;
+import com.github.rinde.rinsim.util.StochasticSuppliers.AbstractStochasticSupplier;
+import com.google.common.collect.ImmutableList;
+
+/**
+ *
+ * @author Rinde van Lon
+ */
+public class TestAdaptiveSolverBudgets {
+
+  static final long TICK = 250000000L;
+
+  @Test
+  public void levelOfLoad() {
+    assertEquals(0, AdaptiveSolverBudgets.level(0d));
+    assertEquals(0, AdaptiveSolverBudgets.level(1d));
+    assertEquals(1, AdaptiveSolverBudgets.level(1.5));
+    assertEquals(1, AdaptiveSolverBudgets.level(2d));
+    assertEquals(2, AdaptiveSolverBudgets.level(3d));
+    assertEquals(2, AdaptiveSolverBudgets.level(4d));
+    assertEquals(3, AdaptiveSolverBudgets.level(5d));
+    assertEquals(3, AdaptiveSolverBudgets.level(1000d));
+  }
+
+  @Test
+  public void cancelOnLevelSwitch() {
+    final List<FakeSolver> fakes = new ArrayList<>();
+    final Load load = new Load();
+    final AdaptiveSolver solver = new AdaptiveSolver(suppliers(fakes), load,
+      123L);
+
+    solver.problemChanged(null);
+    assertEquals(1, fakes.get(0).changes);
+    fakes.get(0).computing = true;
+
+    // same level, the computing solver is not cancelled
+    solver.problemChanged(null);
+    assertEquals(2, fakes.get(0).changes);
+    assertEquals(0, fakes.get(0).cancels);
+
+    // every tick is twice as long as it should be
+    for (int i = 0; i < 100; i++) {
+      load.recordTickInterval(2 * TICK, TICK);
+    }
+    solver.problemChanged(null);
+    assertEquals(1, fakes.get(0).cancels);
+    assertEquals(1, fakes.get(3).changes);
+    assertArrayEquals(new int[] {2, 0, 0, 1}, load.getLevelCounts());
+
+    // a new simulation does not inherit the lateness of the previous one
+    final List<FakeSolver> otherFakes = new ArrayList<>();
+    final Load fresh = new Load();
+    new AdaptiveSolver(suppliers(otherFakes), fresh, 123L)
+      .problemChanged(null);
+    assertEquals(1, otherFakes.get(0).changes);
+    assertArrayEquals(new int[] {1, 0, 0, 0}, fresh.getLevelCounts());
+    assertArrayEquals(new int[] {2, 0, 0, 1}, load.getLevelCounts());
+  }
+
+  // the ticks are recorded by the clock thread, the solvers are notified by
+  // the threads of the solver executor
+  @Test
+  public void loadOfOtherThread() throws InterruptedException {
+    final List<FakeSolver> fakes = new ArrayList<>();
+    final Load load = new Load();
+    final AdaptiveSolver solver = new AdaptiveSolver(suppliers(fakes), load,
+      123L);
+    for (int i = 0; i < 100; i++) {
+      load.recordTickInterval(2 * TICK, TICK);
+    }
+    final Thread solverThread = new Thread() {
+      @Override
+      public void run() {
+        solver.problemChanged(null);
+      }
+    };
+    solverThread.start();
+    solverThread.join();
+    assertEquals(0, fakes.get(0).changes);
+    assertEquals(1, fakes.get(3).changes);
+    assertArrayEquals(new int[] {0, 0, 0, 1}, load.getLevelCounts());
+  }
+
+  // the handler creates the vehicle with the load of the simulation
+  @Test
+  public void vehicleHandlerUsesLoadOfSimulation() {
+    final Load load = new Load();
+    final List<Load> created = new ArrayList<>();
+    final AdaptiveSolverBudgets.VehicleHandler handler =
+      new AdaptiveSolverBudgets.VehicleHandler() {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        protected TimedEventHandler<AddVehicleEvent> create(Load l) {
+          created.add(l);
+          return new TimedEventHandler<AddVehicleEvent>() {
+            @Override
+            public void handleTimedEvent(AddVehicleEvent event,
+                SimulatorAPI simulator) {}
+          };
+        }
+      };
+    final SimulatorAPI sim = new SimulatorAPI() {
+      @Override
+      public void register(Object o) {
+        // as the TickLogger of the simulation does
+        ((LoadUser) o).setLoad(load);
+      }
+
+      @Override
+      public void unregister(Object o) {}
+
+      @Override
+      public RandomGenerator getRandomGenerator() {
+        throw new UnsupportedOperationException();
+      }
+    };
+    handler.handleTimedEvent(null, sim);
+    handler.handleTimedEvent(null, sim);
+    assertEquals(2, created.size());
+    assertSame(load, created.get(0));
+    assertSame(load, created.get(1));
+  }
+
+  // a supplier per level, every supplier returns its own fake solver
+  static ImmutableList<StochasticSupplier<RealtimeSolver>> suppliers(
+      List<FakeSolver> fakes) {
+    final ImmutableList.Builder<StochasticSupplier<RealtimeSolver>> sups =
+      ImmutableList.builder();
+    for (int i = 0; i < AdaptiveSolverBudgets.LEVELS.length; i++) {
+      final FakeSolver fake = new FakeSolver();
+      fakes.add(fake);
+      sups.add(new AbstractStochasticSupplier<RealtimeSolver>() {
+        private static final long serialVersionUID = 1L;
+
+        @Override
+        public RealtimeSolver get(long seed) {
+          return fake;
+        }
+      });
+    }
+    return sups.build();
+  }
+
+  static class FakeSolver implements RealtimeSolver {
+    int changes;
+    int cancels;
+    boolean computing;
+
+    @Override
+    public void init(Scheduler scheduler) {}
+
+    @Override
+    public void problemChanged(GlobalStateObject snapshot) {
+      changes++;
+    }
+
+    @Override
+    public void receiveSnapshot(GlobalStateObject snapshot) {}
+
+    @Override
+    public void cancel() {
+      cancels++;
+      computing = false;
+    }
+
+    @Override
+    public boolean isComputing() {
+      return computing;
+    }
+  }
+}
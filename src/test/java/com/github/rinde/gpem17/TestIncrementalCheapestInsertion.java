@@ -0,0 +1,224 @@
+/*
+ * Copyright (C) 2011-2016 Rinde van Lon, iMinds-DistriNet, KU Leuven
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.rinde.gpem17;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import javax.measure.unit.NonSI;
+import javax.measure.unit.SI;
+import javax.measure.unit.Unit;
+
+import org.junit.Test;
+
+import com.github.rinde.gpem17.IncrementalCheapestInsertion.Legs;
+import com.github.rinde.logistics.pdptw.solver.CheapestInsertionHeuristic;
+import com.github.rinde.rinsim.central.GlobalStateObject;
+import com.github.rinde.rinsim.central.GlobalStateObject.VehicleStateObject;
+import com.github.rinde.rinsim.central.GlobalStateObjects;
+import com.github.rinde.rinsim.central.Solver;
+import com.github.rinde.rinsim.central.Solvers;
+import com.github.rinde.rinsim.core.model.pdp.Parcel;
+import com.github.rinde.rinsim.core.model.pdp.VehicleDTO;
+import com.github.rinde.rinsim.geom.Point;
+import com.github.rinde.rinsim.scenario.gendreau06.Gendreau06ObjectiveFunction;
+import com.github.rinde.rinsim.util.TimeWindow;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+
+/**
+ *
+ * @author Rinde van Lon
+ */
+public class TestIncrementalCheapestInsertion {
+  static final Gendreau06ObjectiveFunction OBJ_FUNC =
+    Gendreau06ObjectiveFunction.instance(50d, 1, 2, 1.5);
+
+  // the schedules are equal to those of the cheapest insertion heuristic of
+  // rinlog, which computes the cost of every candidate with
+  // Solvers.computeStats(..)
+  @Test
+  public void sameSchedulesAsCheapestInsertionHeuristic()
+      throws InterruptedException {
+    final Solver cih =
+      CheapestInsertionHeuristic.supplier(OBJ_FUNC).get(0);
+    for (int seed = 0; seed < 100; seed++) {
+      final GlobalStateObject state = randomState(new Random(seed));
+      assertEquals("seed " + seed, cih.solve(state),
+        new IncrementalCheapestInsertion(OBJ_FUNC).solve(state));
+    }
+  }
+
+  // the cost of every insertion point that is computed from the legs of a
+  // route equals the cost of the route with the parcel inserted as computed
+  // by Solvers.computeStats(..)
+  @Test
+  public void insertionCostsEqualDirectComputation() {
+    final IncrementalCheapestInsertion ici =
+      new IncrementalCheapestInsertion(OBJ_FUNC);
+    int servicing = 0;
+    for (int seed = 0; seed < 100; seed++) {
+      final GlobalStateObject state = randomState(new Random(seed));
+      for (int i = 0; i < state.getVehicles().size(); i++) {
+        final VehicleStateObject vso = state.getVehicles().get(i);
+        final ImmutableList<Parcel> route = vso.getRoute().get();
+        final IncrementalCheapestInsertion.Route r =
+          ici.new Route(state, vso, route);
+        assertEquals(cost(state, i, route, OBJ_FUNC), r.cost, 0d);
+        if (r.servicing) {
+          servicing++;
+        }
+        final int startIndex = vso.getDestination().isPresent() ? 1 : 0;
+        for (final Parcel p : GlobalStateObjects.unassignedParcels(state)) {
+          final Legs legs = new Legs(r, p);
+          for (int pi = startIndex; pi <= route.size(); pi++) {
+            for (int di = pi; di <= route.size(); di++) {
+              assertEquals("seed " + seed + ", " + pi + ", " + di,
+                cost(state, i, IncrementalCheapestInsertion.insert(route, p,
+                  pi, di), OBJ_FUNC),
+                r.insertionCost(legs, pi, di), 0d);
+            }
+          }
+        }
+      }
+    }
+    // vehicles that are servicing the first stop of their route are covered
+    assertTrue(servicing > 0);
+  }
+
+  static double cost(GlobalStateObject state, int vehicle,
+      ImmutableList<Parcel> route, Gendreau06ObjectiveFunction objFunc) {
+    return objFunc.computeCost(Solvers.computeStats(
+      state.withSingleVehicle(vehicle), ImmutableList.of(route)));
+  }
+
+  // A state with a few vehicles with random routes, parcels are either
+  // unassigned, in cargo or assigned to a route. Some vehicles are on their
+  // way to the first stop of their route or are servicing it.
+  static GlobalStateObject randomState(Random rng) {
+    final long time = 600000L + 1000L * rng.nextInt(3000);
+    final int numVehicles = 1 + rng.nextInt(4);
+    final List<List<Parcel>> routes = new ArrayList<>();
+    final List<Set<Parcel>> contents = new ArrayList<>();
+    for (int v = 0; v < numVehicles; v++) {
+      routes.add(new ArrayList<Parcel>());
+      contents.add(new LinkedHashSet<Parcel>());
+    }
+    final Set<Parcel> available = new LinkedHashSet<>();
+    final int numParcels = 5 + rng.nextInt(25);
+    for (int i = 0; i < numParcels; i++) {
+      final Parcel p = randomParcel(rng, time);
+      final int v = rng.nextInt(numVehicles);
+      final List<Parcel> route = routes.get(v);
+      final int type = rng.nextInt(3);
+      if (type == 0) {
+        available.add(p);
+      } else if (type == 1) {
+        contents.get(v).add(p);
+        route.add(rng.nextInt(route.size() + 1), p);
+      } else {
+        available.add(p);
+        final int pi = rng.nextInt(route.size() + 1);
+        route.add(pi, p);
+        route.add(pi + 1 + rng.nextInt(route.size() - pi), p);
+      }
+    }
+
+    final ImmutableList.Builder<VehicleStateObject> vehicles =
+      ImmutableList.builder();
+    for (int v = 0; v < numVehicles; v++) {
+      final List<Parcel> route = routes.get(v);
+      Point location = randomPoint(rng);
+      Parcel destination = null;
+      long remainingServiceTime = 0L;
+      if (!route.isEmpty() && rng.nextBoolean()) {
+        destination = route.get(0);
+        if (rng.nextBoolean()) {
+          remainingServiceTime = 1000L * (1 + rng.nextInt(100));
+          location = contents.get(v).contains(destination)
+            ? destination.getDeliveryLocation()
+            : destination.getPickupLocation();
+        }
+      }
+      final VehicleDTO dto = VehicleDTO.builder()
+        .startPosition(new Point(5, 5))
+        .speed(50)
+        .availabilityTimeWindow(TimeWindow.create(0, 8 * 3600000L))
+        .build();
+      vehicles.add(createVehicle(dto, location,
+        ImmutableSet.copyOf(contents.get(v)), remainingServiceTime,
+        destination, ImmutableList.copyOf(route)));
+    }
+    return createState(ImmutableSet.copyOf(available), vehicles.build(),
+      time);
+  }
+
+  static Parcel randomParcel(Random rng, long time) {
+    final long pickup = time - 600000L + 1000L * rng.nextInt(3000);
+    final long delivery = pickup + 1000L * rng.nextInt(2000);
+    return Parcel.builder(randomPoint(rng), randomPoint(rng))
+      .pickupTimeWindow(
+        TimeWindow.create(pickup, pickup + 1000L * rng.nextInt(1800)))
+      .deliveryTimeWindow(
+        TimeWindow.create(delivery, delivery + 1000L * rng.nextInt(1800)))
+      .pickupDuration(1000L * rng.nextInt(300))
+      .deliveryDuration(1000L * rng.nextInt(300))
+      .build();
+  }
+
+  static Point randomPoint(Random rng) {
+    return new Point(rng.nextDouble() * 10, rng.nextDouble() * 10);
+  }
+
+  // the factory methods of the state objects are package private
+  static VehicleStateObject createVehicle(VehicleDTO dto, Point location,
+      ImmutableSet<Parcel> contents, long remainingServiceTime,
+      Parcel destination, ImmutableList<Parcel> route) {
+    return (VehicleStateObject) invoke(VehicleStateObject.class,
+      new Class<?>[] {VehicleDTO.class, Point.class, ImmutableSet.class,
+        long.class, Parcel.class, ImmutableList.class},
+      dto, location, contents, remainingServiceTime, destination, route);
+  }
+
+  static GlobalStateObject createState(ImmutableSet<Parcel> available,
+      ImmutableList<VehicleStateObject> vehicles, long time) {
+    return (GlobalStateObject) invoke(GlobalStateObject.class,
+      new Class<?>[] {ImmutableSet.class, ImmutableList.class, long.class,
+        Unit.class, Unit.class, Unit.class},
+      available, vehicles, time, SI.MILLI(SI.SECOND),
+      NonSI.KILOMETERS_PER_HOUR, SI.KILOMETER);
+  }
+
+  static Object invoke(Class<?> type, Class<?>[] paramTypes,
+      Object... params) {
+    try {
+      final Method create = type.getDeclaredMethod("create", paramTypes);
+      create.setAccessible(true);
+      return create.invoke(null, params);
+    } catch (NoSuchMethodException | IllegalAccessException
+        | InvocationTargetException e) {
+      throw new IllegalStateException(e);
+    }
+  }
+}
@@ -0,0 +1,240 @@
+/*
+ * Copyright (C) 2011-2016 Rinde van Lon, iMinds-DistriNet, KU Leuven
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.rinde.gpem17.eval;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.ByteArrayInputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.net.ServerSocket;
+import java.net.Socket;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.junit.Test;
+
+import com.github.rinde.gpem17.GPEM17.ReauctOpt;
+import com.github.rinde.gpem17.evo.FitnessEvaluator.Converter;
+import com.google.common.collect.ImmutableList;
+import com.google.common.hash.Hashing;
+
+/**
+ *
+ * @author Rinde van Lon
+ */
+public class TestCoordinator {
+
+  @Test
+  public void lostWorker() throws Exception {
+    final Coordinator coordinator = new Coordinator(new ServerSocket(0),
+      Coordinator.DEFAULT_HEARTBEAT_TIMEOUT);
+    startWorker(coordinator, false);
+    startWorker(coordinator, false);
+    startWorker(coordinator, true);
+    // every worker should receive a task
+    awaitRequests(coordinator, 3);
+
+    final List<SimTask> tasks = new ArrayList<>();
+    final Map<String, byte[]> scenarios = new HashMap<>();
+    for (int s = 0; s < 4; s++) {
+      final byte[] contents = new byte[] {(byte) s};
+      final String hash = Hashing.sha256().hashBytes(contents).toString();
+      scenarios.put(hash, contents);
+      for (int p = 0; p < 6; p += 2) {
+        tasks.add(SimTask.create(ImmutableList.of("p" + p, "p" + (p + 1)),
+          "scen" + s + ".scen", hash, ReauctOpt.EVO, "1-1-1",
+          Converter.INSTANCE));
+      }
+    }
+    final ResultStore store =
+      new ResultStore(Files.createTempDirectory("store").toFile());
+    assertEquals(tasks.size(), coordinator.execute(tasks, scenarios, store));
+    assertEquals(2, coordinator.getNumWorkers());
+    assertEquals(24, store.size());
+    for (int s = 0; s < 4; s++) {
+      for (int p = 0; p < 6; p++) {
+        assertEquals(TestResultStore.result(p).getStats(),
+          store.get(ResultStore.key("test", "scen" + s + ".scen", p)).get()
+            .getStats());
+      }
+    }
+    coordinator.close();
+  }
+
+  // tasks that fail on a worker are not counted as completed
+  @Test
+  public void failedTasks() throws Exception {
+    final Coordinator coordinator = new Coordinator(new ServerSocket(0),
+      Coordinator.DEFAULT_HEARTBEAT_TIMEOUT);
+    startWorker(coordinator, false, true);
+    awaitRequests(coordinator, 1);
+    final Map<String, byte[]> scenarios = new HashMap<>();
+    final List<SimTask> tasks = tasks(scenarios, 4);
+    final ResultStore store =
+      new ResultStore(Files.createTempDirectory("store").toFile());
+    // the tasks of scen0.scen fail
+    assertEquals(tasks.size() - 1,
+      coordinator.execute(tasks, scenarios, store));
+    assertEquals(6, store.size());
+    coordinator.close();
+  }
+
+  // the port of a closed coordinator can be used by a new coordinator
+  @Test
+  public void restartOnSamePort() throws Exception {
+    final Coordinator first = Coordinator.start(0);
+    final int port = first.getPort();
+    startWorker(first, false);
+    awaitRequests(first, 1);
+    first.close();
+
+    final Coordinator second = Coordinator.start(port);
+    assertEquals(port, second.getPort());
+    startWorker(second, false);
+    awaitRequests(second, 1);
+    final Map<String, byte[]> scenarios = new HashMap<>();
+    final List<SimTask> tasks = tasks(scenarios, 2);
+    final ResultStore store =
+      new ResultStore(Files.createTempDirectory("store").toFile());
+    assertEquals(tasks.size(), second.execute(tasks, scenarios, store));
+    assertEquals(4, store.size());
+    second.close();
+  }
+
+  // a worker that does not send anything within the heartbeat timeout is
+  // lost, its task is not completed
+  @Test
+  public void heartbeatTimeout() throws Exception {
+    final Coordinator coordinator = new Coordinator(new ServerSocket(0), 500);
+    try (Socket silent = new Socket("localhost", coordinator.getPort())) {
+      final DataOutputStream out =
+        new DataOutputStream(silent.getOutputStream());
+      Coordinator.write(out, Coordinator.MessageType.REQUEST, new byte[0]);
+      out.flush();
+      awaitRequests(coordinator, 1);
+
+      final Map<String, byte[]> scenarios = new HashMap<>();
+      final long start = System.currentTimeMillis();
+      assertEquals(0,
+        coordinator.execute(tasks(scenarios, 1), scenarios,
+          new ResultStore(Files.createTempDirectory("store").toFile())));
+      assertTrue(System.currentTimeMillis() - start
+        < Coordinator.DEFAULT_HEARTBEAT_TIMEOUT);
+      assertEquals(0, coordinator.getNumWorkers());
+    }
+    coordinator.close();
+  }
+
+  @Test
+  public void encoding() throws IOException {
+    final SimTask task = SimTask.create(ImmutableList.of("(insertioncost)",
+      "(+ (ado) 1.0)"), "0.50-20-1.00-0.scen", "abc", ReauctOpt.CIH,
+      ".5-1-1", Converter.INSTANCE);
+    assertEquals(task, SimTask.readFrom(new DataInputStream(
+      new ByteArrayInputStream(Coordinator.encode(task)))));
+
+    final byte[] scenario = new byte[10000];
+    Arrays.fill(scenario, (byte) '{');
+    final byte[] payload = Coordinator.scenarioPayload(scenario);
+    assertTrue(payload.length < scenario.length / 10);
+    assertArrayEquals(scenario, Coordinator.readScenarioPayload(payload));
+  }
+
+  // a task with programs p0 and p1 for every scenario
+  static List<SimTask> tasks(Map<String, byte[]> scenarios, int num) {
+    final List<SimTask> tasks = new ArrayList<>();
+    for (int s = 0; s < num; s++) {
+      final byte[] contents = new byte[] {(byte) s};
+      final String hash = Hashing.sha256().hashBytes(contents).toString();
+      scenarios.put(hash, contents);
+      tasks.add(SimTask.create(ImmutableList.of("p0", "p1"),
+        "scen" + s + ".scen", hash, ReauctOpt.EVO, "1-1-1",
+        Converter.INSTANCE));
+    }
+    return tasks;
+  }
+
+  static void awaitRequests(Coordinator coordinator, int num)
+      throws InterruptedException {
+    while (true) {
+      synchronized (coordinator) {
+        if (coordinator.requests.size() == num) {
+          return;
+        }
+      }
+      Thread.sleep(10);
+    }
+  }
+
+  static void startWorker(Coordinator coordinator, boolean dies)
+      throws IOException {
+    startWorker(coordinator, dies, false);
+  }
+
+  // a failing worker fails the tasks of scen0.scen
+  static void startWorker(Coordinator coordinator, final boolean dies,
+      final boolean failing) throws IOException {
+    final Socket socket = new Socket("localhost", coordinator.getPort());
+    final File dir = Files.createTempDirectory("worker").toFile();
+    final Worker worker = new Worker(socket, "worker",
+      new Worker.ScenarioCache(new File(dir, "scenarios"), null),
+      new Worker.TaskComputer() {
+        @Override
+        public byte[] compute(SimTask task, File scenario) {
+          if (dies) {
+            try {
+              socket.close();
+            } catch (final IOException e) {
+              throw new IllegalStateException(e);
+            }
+          }
+          assertEquals(task.getScenarioFileName(), scenario.getName());
+          if (failing && scenario.getName().equals("scen0.scen")) {
+            throw new IllegalStateException("Failing task.");
+          }
+          final ResultStore rs = ResultStore.open(new File(dir, "store"));
+          final long position = rs.dataSize();
+          for (final String prog : task.getPrograms()) {
+            final int p = Integer.parseInt(prog.substring(1));
+            rs.put(ResultStore.key("test", task.getScenarioFileName(), p),
+              TestResultStore.result(p));
+          }
+          return rs.readRecords(position);
+        }
+      });
+    final Thread t = new Thread(new Runnable() {
+      @Override
+      public void run() {
+        try {
+          worker.run();
+        } catch (final IOException e) {
+          assertTrue(dies);
+        }
+      }
+    });
+    t.setDaemon(true);
+    t.start();
+  }
+}
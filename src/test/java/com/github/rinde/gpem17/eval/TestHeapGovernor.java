@@ -0,0 +1,79 @@
+/*
+ * Copyright (C) 2011-2016 Rinde van Lon, iMinds-DistriNet, KU Leuven
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.rinde.gpem17.eval;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+
+import org.junit.Test;
+
+/**
+ *
+ * @author Rinde van Lon
+ */
+public class TestHeapGovernor {
+
+  // eden and survivor pools are ignored, the old generation is checked
+  @Test
+  public void onlyTenuredPools() {
+    int tenured = 0;
+    for (final MemoryPoolMXBean pool : ManagementFactory
+      .getMemoryPoolMXBeans()) {
+      final String name = pool.getName();
+      if (name.contains("Eden") || name.contains("Survivor")) {
+        assertFalse(name, HeapGovernor.isTenured(pool));
+      } else if (pool.getType() == MemoryType.NON_HEAP) {
+        assertFalse(name, HeapGovernor.isTenured(pool));
+      } else if (HeapGovernor.isTenured(pool)) {
+        tenured++;
+      }
+    }
+    assertTrue(tenured > 0);
+  }
+
+  @Test
+  public void releaseIsIdempotent() {
+    final int before = HeapGovernor.inFlight();
+    final HeapGovernor governor = HeapGovernor.acquire();
+    assertEquals(before + 1, HeapGovernor.inFlight());
+    governor.release();
+    governor.release();
+    assertEquals(before, HeapGovernor.inFlight());
+  }
+
+  // the simulation failed before its results were collected
+  @Test
+  public void permitOfCollectedGovernorIsReturned()
+      throws InterruptedException {
+    final int before = HeapGovernor.inFlight();
+    acquireAndDrop();
+    assertEquals(before + 1, HeapGovernor.inFlight());
+    for (int i = 0; i < 100 && HeapGovernor.inFlight() > before; i++) {
+      System.gc();
+      Thread.sleep(50);
+    }
+    assertEquals(before, HeapGovernor.inFlight());
+  }
+
+  static void acquireAndDrop() {
+    HeapGovernor.acquire();
+  }
+}
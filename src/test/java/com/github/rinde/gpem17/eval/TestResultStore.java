@@ -0,0 +1,132 @@
+/*
+ * Copyright (C) 2011-2016 Rinde van Lon, iMinds-DistriNet, KU Leuven
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.rinde.gpem17.eval;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.measure.unit.NonSI;
+import javax.measure.unit.SI;
+
+import org.junit.Test;
+
+import com.github.rinde.gpem17.AuctionStats;
+import com.github.rinde.logistics.pdptw.mas.comm.AuctionCommModel.AuctionEvent;
+import com.github.rinde.logistics.pdptw.mas.comm.Bidder;
+import com.github.rinde.rinsim.central.SolverTimeMeasurement;
+import com.github.rinde.rinsim.pdptw.common.StatisticsDTO;
+import com.google.common.base.Optional;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableListMultimap;
+import com.google.common.hash.HashCode;
+
+/**
+ *
+ * @author Rinde van Lon
+ */
+public class TestResultStore {
+
+  @Test
+  public void putGet() throws IOException {
+    final File dir = Files.createTempDirectory("store").toFile();
+    final String prefix = ResultStore.keyPrefix("st", "(insertioncost)");
+    final ResultStore store = new ResultStore(dir);
+
+    // enough results to grow the index twice
+    final int num = ResultStore.INITIAL_CAPACITY + 1;
+    for (int i = 0; i < num; i++) {
+      store.put(ResultStore.key(prefix, "scen", i), result(i));
+    }
+    store.put(ResultStore.key(prefix, "scen", 0), result(1));
+    assertEquals(num, store.size());
+    assertEquals(4 * ResultStore.INITIAL_CAPACITY, store.capacity);
+    assertFalse(
+      store.get(ResultStore.key(prefix, "other-scen", 0)).isPresent());
+
+    // a second instance (e.g. another process) sees the same results
+    final ResultStore other = new ResultStore(dir);
+    for (final ResultStore rs : new ResultStore[] {store, other}) {
+      for (int i = 0; i < num; i += 97) {
+        final SimResult expected = result(i);
+        final Optional<SimResult> actual =
+          rs.get(ResultStore.key(prefix, "scen", i));
+        assertTrue(actual.isPresent());
+        assertEquals(expected.getStats(), actual.get().getStats());
+        assertEquals(expected.getAuctionStats(),
+          actual.get().getAuctionStats());
+        assertEquals(i, actual.get().getTickLog().getStCount());
+      }
+    }
+
+    // without index, it is rebuilt from the data file
+    for (final File f : dir.listFiles()) {
+      if (f.getName().startsWith(ResultStore.INDEX_PREFIX)) {
+        assertTrue(f.delete());
+      }
+    }
+    final ResultStore rebuilt = new ResultStore(dir);
+    assertEquals(num, rebuilt.size());
+    final HashCode last = ResultStore.key(prefix, "scen", num - 1);
+    assertEquals(result(num - 1).getStats(),
+      rebuilt.get(last).get().getStats());
+  }
+
+  // records that are read by key can be added to another store
+  @Test
+  public void readRecordsByKey() throws IOException {
+    final String prefix = ResultStore.keyPrefix("st", "(insertioncost)");
+    final ResultStore store =
+      new ResultStore(Files.createTempDirectory("store").toFile());
+    for (int i = 0; i < 10; i++) {
+      store.put(ResultStore.key(prefix, "scen", i), result(i));
+    }
+    final List<HashCode> keys = new ArrayList<>();
+    for (int i = 5; i < 15; i++) {
+      keys.add(ResultStore.key(prefix, "scen", i));
+    }
+    final ResultStore other =
+      new ResultStore(Files.createTempDirectory("store").toFile());
+    other.putRecords(store.readRecords(keys));
+    assertEquals(5, other.size());
+    for (int i = 0; i < 10; i++) {
+      final Optional<SimResult> actual =
+        other.get(ResultStore.key(prefix, "scen", i));
+      assertEquals(i >= 5, actual.isPresent());
+      if (i >= 5) {
+        assertEquals(result(i).getStats(), actual.get().getStats());
+      }
+    }
+  }
+
+  static SimResult result(int i) {
+    final StatisticsDTO stats = new StatisticsDTO(i * 1.5, 10, 10, 10, 10,
+      i, 2 * i, 0L, 1000L * i, i % 2 == 0, 2, 3L * i, 2, 2,
+      SI.MILLI(SI.SECOND), SI.KILOMETER, NonSI.KILOMETERS_PER_HOUR);
+    final Optional<AuctionStats> aStats = i % 3 == 0
+      ? Optional.<AuctionStats>absent()
+      : Optional.of(AuctionStats.create(10, i, 1, 0));
+    return SimResult.create(stats, TickLog.empty(0, i, -1), aStats,
+      ImmutableList.<AuctionEvent>of(),
+      ImmutableListMultimap.<Bidder<?>, SolverTimeMeasurement>of());
+  }
+}
@@ -0,0 +1,99 @@
+/*
+ * Copyright (C) 2011-2016 Rinde van Lon, iMinds-DistriNet, KU Leuven
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.rinde.gpem17.eval;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Map;
+
+import org.junit.Test;
+
+/**
+ *
+ * @author Rinde van Lon
+ */
+public class TestTickLog {
+
+  static final long MS = 1000000L;
+
+  @Test
+  public void encodeDecode() {
+    final long[] iats = new long[] {250 * MS, 249 * MS + 123, 251 * MS - 7,
+      400 * MS, 250 * MS, 3 * MS, 1000 * MS};
+    final TickLog.Recorder rec = new TickLog.Recorder(250);
+    for (final long iat : iats) {
+      rec.record(iat);
+    }
+    final TickLog log = rec.build(8, 2, -1);
+
+    assertArrayEquals(iats, log.decodeInterArrivalTimes());
+    assertEquals(iats.length, log.size());
+    assertEquals(8, log.getRtCount());
+    assertEquals(2, log.getStCount());
+    assertEquals(1000 * MS, log.getMaxInterArrivalTime());
+    // 400ms and 1000ms are more than 5% late
+    assertEquals(2, log.getNumLateTicks());
+    assertEquals(1000 * MS, log.getPercentile99());
+  }
+
+  @Test
+  public void percentiles() {
+    final TickLog.Recorder rec = new TickLog.Recorder(250);
+    for (int i = 0; i < 100; i++) {
+      rec.record(i < 95 ? 250 * MS : 270 * MS);
+    }
+    final TickLog log = rec.build(100, 0, -1);
+    assertEquals(251 * MS, log.getMeanInterArrivalTime());
+    assertEquals(250 * MS, log.getPercentile50());
+    assertEquals(250 * MS, log.getPercentile95());
+    assertEquals(270 * MS, log.getPercentile99());
+    assertEquals(5, log.getNumLateTicks());
+  }
+
+  @Test
+  public void writeRead() throws IOException {
+    final TickLog.Recorder rec = new TickLog.Recorder(250);
+    rec.record(250 * MS + 17);
+    rec.record(249 * MS);
+    final TickLog log = rec.build(3, 0, 4, new int[] {5, 0, 2, 1});
+
+    final File file = File.createTempFile("time-deviations", ".bin");
+    file.deleteOnExit();
+    try (DataOutputStream out =
+      new DataOutputStream(new FileOutputStream(file))) {
+      out.writeUTF("a");
+      log.writeTo(out);
+      out.writeUTF("b");
+      TickLog.empty(0, 10, -1).writeTo(out);
+    }
+
+    final Map<String, TickLog> read = TickLog.read(file);
+    assertEquals(2, read.size());
+    assertArrayEquals(log.decodeInterArrivalTimes(),
+      read.get("a").decodeInterArrivalTimes());
+    assertEquals(4, read.get("a").getCpuId());
+    assertArrayEquals(new int[] {5, 0, 2, 1},
+      read.get("a").getBudgetLevelCounts());
+    assertEquals(0, read.get("b").getBudgetLevelCounts().length);
+    assertEquals(0, read.get("b").size());
+    assertEquals(10, read.get("b").getStCount());
+  }
+}
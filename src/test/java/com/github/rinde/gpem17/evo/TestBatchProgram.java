@@ -0,0 +1,522 @@
+/*
+ * Copyright (C) 2011-2016 Rinde van Lon, iMinds-DistriNet, KU Leuven
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.rinde.gpem17.evo;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import javax.annotation.Nullable;
+
+import org.junit.Test;
+
+import com.github.rinde.ecj.GPFunc;
+import com.github.rinde.ecj.GPProgram;
+import com.github.rinde.ecj.GPProgramParser;
+import com.github.rinde.ecj.GenericFunctions.Add;
+import com.github.rinde.ecj.GenericFunctions.Constant;
+import com.github.rinde.ecj.GenericFunctions.Div;
+import com.github.rinde.ecj.GenericFunctions.If4;
+import com.github.rinde.ecj.GenericFunctions.Max;
+import com.github.rinde.ecj.GenericFunctions.Min;
+import com.github.rinde.ecj.GenericFunctions.Mul;
+import com.github.rinde.ecj.GenericFunctions.Neg;
+import com.github.rinde.ecj.GenericFunctions.Pow;
+import com.github.rinde.ecj.GenericFunctions.Sub;
+import com.github.rinde.gpem17.evo.BatchProgram.Op;
+import com.google.common.collect.ImmutableSet;
+
+/**
+ *
+ * @author Rinde van Lon
+ */
+public class TestBatchProgram {
+
+  // the scalar computation is done for every insertion point of every bid
+  @Test
+  public void computeDoesNotAllocate() {
+    final com.sun.management.ThreadMXBean threads = allocationCounter();
+
+    // (* (add 2 3) 2), the addition is a function call
+    final BatchProgram<Object> prog = new BatchProgram<>("",
+      Arrays.asList(Op.CONST, Op.CONST, Op.CALL, Op.MUL),
+      Arrays.<GPFunc<Object>>asList(null, null, new Add<Object>(), null),
+      Arrays.asList(new int[0], new int[0], new int[] {0, 1},
+        new int[] {2, 0}),
+      Arrays.asList(2d, 3d, 0d, 0d), 3);
+    final Object context = new Object();
+    double sum = 0;
+    for (int i = 0; i < 20000; i++) {
+      sum += prog.compute(context);
+    }
+    final long id = Thread.currentThread().getId();
+    final long before = threads.getThreadAllocatedBytes(id);
+    for (int i = 0; i < 20000; i++) {
+      sum += prog.compute(context);
+    }
+    final long allocated = threads.getThreadAllocatedBytes(id) - before;
+    // allocating the registers once per call would be more than 1MB
+    assertTrue(allocated + " bytes, " + sum, allocated < 20000);
+  }
+
+  // computes the values of all insertion points of a bid with a program that
+  // uses generic functions and route-level terminals, as the bidder does
+  @Test
+  public void bidDoesNotAllocate() {
+    final com.sun.management.ThreadMXBean threads = allocationCounter();
+    final List<GPFunc<double[]>> funcs = functionSet();
+    funcs.add(new RouteVar());
+    final GPProgram<double[]> prog = GPProgramParser.parseProgramFunc(
+      "(+ (if4 (- slack r) (x insertioncost 2.0) (min timeleft r) "
+        + "(pow insertiontardiness 2.0)) (/ insertionflexibility (max r 1.0)))",
+      funcs);
+    final BatchProgram<double[]> compiled =
+      BatchProgram.doCompile(prog, ImmutableSet.<Class<?>>of(RouteVar.class));
+    final Random rng = new Random(123);
+    final List<List<double[]>> routes = new ArrayList<>();
+    for (int route = 0; route < 10; route++) {
+      final List<double[]> contexts = new ArrayList<>();
+      final double r = rng.nextInt(5);
+      for (int i = 0; i < 50; i++) {
+        final double[] context = new double[VARIABLES.size() + 1];
+        for (int j = 0; j < VARIABLES.size(); j++) {
+          context[j] = (rng.nextDouble() - .5) * 100;
+        }
+        context[VARIABLES.size()] = r;
+        contexts.add(context);
+      }
+      routes.add(contexts);
+    }
+    double sum = 0;
+    for (int i = 0; i < 200; i++) {
+      sum += bid(compiled, routes);
+    }
+    final long id = Thread.currentThread().getId();
+    final long before = threads.getThreadAllocatedBytes(id);
+    for (int i = 0; i < 200; i++) {
+      sum += bid(compiled, routes);
+    }
+    final long allocated = threads.getThreadAllocatedBytes(id) - before;
+    // 200 bids of 1000 evaluations each
+    assertTrue(allocated + " bytes, " + sum, allocated < 20000);
+  }
+
+  // the cheapest value over all insertion points of all routes
+  static double bid(BatchProgram<double[]> prog,
+      List<List<double[]>> routes) {
+    double best = Double.POSITIVE_INFINITY;
+    for (int r = 0; r < routes.size(); r++) {
+      final List<double[]> contexts = routes.get(r);
+      for (int i = 0; i < contexts.size(); i++) {
+        best = Math.min(best, prog.compute(contexts.get(i)));
+      }
+    }
+    return best;
+  }
+
+  static com.sun.management.ThreadMXBean allocationCounter() {
+    final java.lang.management.ThreadMXBean bean =
+      ManagementFactory.getThreadMXBean();
+    assumeTrue(bean instanceof com.sun.management.ThreadMXBean);
+    final com.sun.management.ThreadMXBean threads =
+      (com.sun.management.ThreadMXBean) bean;
+    assumeTrue(threads.isThreadAllocatedMemorySupported());
+    threads.setThreadAllocatedMemoryEnabled(true);
+    return threads;
+  }
+
+  // programs of TestEarlyStop
+  static final List<String> PROGRAMS = Arrays.asList(
+    "(x (x (- 0.0 1.0) (neg insertiontraveltime)) (x (/ insertioncost insertioncost) (neg insertioncost)))",
+    "(/ (neg (x (- 2.0 1.0) (neg insertiontardiness))) (min (x (/ insertiontardiness insertionovertime) (+ timeleft timeleft)) (+ (- 10.0 insertionovertime) (min 1.0 insertionflexibility))))",
+    "(/ (if4 (min (x 2.0 insertiontraveltime) (max insertioncost insertionovertime)) (x (neg timeleft) (pow timeleft 0.0)) (+ (x 1.0 0.0) (min 0.0 10.0)) (/ (neg 0.0) (neg insertionovertime))) (/ (pow (neg 2.0) (if4 insertioncost timeleft 10.0 slack)) (pow (pow 10.0 insertiontardiness) (if4 0.0 slack 10.0 slack))))",
+    "(max (neg (pow (neg (max 0.0 insertionovertime)) (if4 (x insertionflexibility timeleft) (max 10.0 insertioncost) (+ 2.0 insertionovertime) (if4 timeleft 0.0 timeleft 10.0)))) (neg (max (min (if4 1.0 10.0 10.0 0.0) (/ timeleft 0.0)) (min (- insertionflexibility 10.0) (/ insertionflexibility 0.0)))))",
+    "(+ (x (if4 (if4 timeleft 2.0 timeleft 10.0) (pow slack 2.0) (if4 insertioncost insertioncost slack 2.0) (/ insertionovertime timeleft)) (- (x insertionflexibility insertiontardiness) (- insertionovertime slack))) (min (max (+ timeleft 10.0) (if4 0.0 insertiontardiness 10.0 timeleft)) (/ (pow timeleft insertiontardiness) (+ 1.0 2.0))))",
+    "(- (max (- (pow insertioncost 2.0) (max (neg 10.0) insertiontardiness)) (/ (+ (- insertiontardiness slack) (neg 0.0)) (max (max insertionovertime insertionovertime) (- 1.0 insertionflexibility)))) (+ (- (if4 (- insertiontardiness 2.0) (max (neg 10.0) insertiontardiness) (if4 2.0 timeleft 10.0 10.0) (+ insertioncost insertiontardiness)) (pow (/ 0.0 slack) (+ timeleft insertioncost))) (if4 (x (+ (- (if4 (- insertiontardiness 2.0) (pow 0.0 timeleft) (max 10.0 insertionflexibility) (neg 10.0)) (max (x (- (neg 1.0) (pow insertioncost 2.0)) (+ insertionflexibility 10.0)) insertionovertime)) (if4 (x (+ insertionflexibility 10.0) (x 10.0 10.0)) (max (max 10.0 insertionflexibility) (+ insertionflexibility insertioncost)) (neg (if4 0.0 insertiontraveltime timeleft insertionovertime)) (/ (/ (x timeleft insertioncost) insertionovertime) (min insertiontardiness timeleft)))) (max (pow insertioncost 2.0) insertionovertime)) (pow insertioncost 2.0) (neg (if4 0.0 insertiontraveltime timeleft insertionovertime)) (/ (/ (x timeleft insertioncost) insertionovertime) (min insertiontardiness timeleft)))))");
+
+  static final List<String> VARIABLES = Arrays.asList("insertionflexibility",
+    "insertioncost", "insertiontraveltime", "insertiontardiness",
+    "insertionovertime", "timeleft", "slack", "ado", "mido", "mado",
+    "routelength", "pickupurgency", "deliveryurgency");
+
+  // the compiled (and deduplicated) programs compute the same values as the
+  // original programs
+  @Test
+  public void compiledProgramsEqualPrograms() {
+    final List<GPFunc<double[]>> funcs = functionSet();
+    final List<String> progs = new ArrayList<>(PROGRAMS);
+    final Random rng = new Random(456);
+    for (int i = 0; i < 200; i++) {
+      progs.add(randomProgram(funcs, rng, 7));
+    }
+    for (final String p : progs) {
+      final GPProgram<double[]> prog =
+        GPProgramParser.parseProgramFunc(p, funcs);
+      assertEquivalent(prog, BatchProgram.doCompile(prog), VARIABLES.size());
+    }
+  }
+
+  // route-level values reused from the previous context equal the values
+  // computed for every insertion point
+  @Test
+  public void routeLevelValuesMatchPerCandidate() {
+    final List<GPFunc<double[]>> funcs = functionSet();
+    funcs.add(new RouteVar());
+    final Random rng = new Random(789);
+    final List<String> progs = new ArrayList<>();
+    progs.add("(+ (x (- r 2.0) (min r 10.0)) (/ insertionflexibility r))");
+    for (int i = 0; i < 100; i++) {
+      progs.add(randomProgram(funcs, rng, 6));
+    }
+    final Set<Class<?>> routeTerminals =
+      ImmutableSet.<Class<?>>of(RouteVar.class);
+    for (final String p : progs) {
+      final GPProgram<double[]> prog =
+        GPProgramParser.parseProgramFunc(p, funcs);
+      final BatchProgram<double[]> compiled =
+        BatchProgram.doCompile(prog, routeTerminals);
+      for (int route = 0; route < 10; route++) {
+        // the first two routes have the same value for r
+        final double r = route < 2 ? 0d : rng.nextInt(5) - 1d;
+        final List<double[]> contexts = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+          final double[] context = new double[VARIABLES.size() + 1];
+          for (int j = 0; j < VARIABLES.size(); j++) {
+            context[j] = (rng.nextDouble() - .5) * 100;
+          }
+          context[VARIABLES.size()] = r;
+          contexts.add(context);
+        }
+        for (final double[] context : contexts) {
+          assertEquals(p, prog.compute(context), compiled.compute(context),
+            0d);
+        }
+      }
+    }
+  }
+
+  // contexts that expose a route key only evaluate the route-level terminals
+  // once per route
+  @Test
+  public void routeKeyAvoidsRouteTerminals() {
+    final RouteTerminal r = new RouteTerminal();
+    final InsertionTerminal ins = new InsertionTerminal();
+    final GPProgram<Keyed> prog = GPProgramParser.parseProgramFunc(
+      "(+ (x r r) (- ins (/ r 2.0)))",
+      Arrays.<GPFunc<Keyed>>asList(new Add<Keyed>(), new Mul<Keyed>(),
+        new Sub<Keyed>(), new Div<Keyed>(), new Constant<Keyed>(2), r, ins));
+    final BatchProgram<Keyed> compiled = BatchProgram.doCompile(prog,
+      ImmutableSet.<Class<?>>of(RouteTerminal.class),
+      ImmutableSet.<Class<?>>of(Route.class));
+
+    // two different routes with the same value, the first route again and a
+    // context without a route key
+    final Route first = new Route(3d);
+    final List<Keyed> contexts = new ArrayList<>();
+    for (final Route route : Arrays.asList(first, new Route(3d),
+      new Route(-1d), first, null)) {
+      for (int i = 0; i < 5; i++) {
+        contexts.add(new Keyed(route, i));
+      }
+    }
+    final double[] expected = new double[contexts.size()];
+    for (int i = 0; i < contexts.size(); i++) {
+      expected[i] = prog.compute(contexts.get(i));
+    }
+    r.calls = 0;
+    ins.calls = 0;
+    for (int i = 0; i < contexts.size(); i++) {
+      assertEquals(expected[i], compiled.compute(contexts.get(i)), 0d);
+    }
+    // once for every keyed route and for every context without a key
+    assertEquals(4 + 5, r.calls);
+    assertEquals(contexts.size(), ins.calls);
+  }
+
+  // programs that only differ in the order of commutative operands, in
+  // duplicate subexpressions or in constant subexpressions are equivalent
+  @Test
+  public void canonicalFormOfEquivalentPrograms() {
+    assertSameCanonicalForm("(+ slack timeleft)", "(+ timeleft slack)");
+    assertSameCanonicalForm(
+      "(x (max slack (min timeleft 2.0)) (+ slack insertioncost))",
+      "(x (+ insertioncost slack) (max (min 2.0 timeleft) slack))");
+    assertSameCanonicalForm("(- slack (+ 1.0 1.0))", "(- slack 2.0)");
+    assertSameCanonicalForm("(/ slack (x 2.0 0.0))",
+      "(/ slack (- 10.0 10.0))");
+    assertSameCanonicalForm("(if4 (+ slack timeleft) 0.0 slack timeleft)",
+      "(if4 (+ timeleft slack) (x 10.0 0.0) slack timeleft)");
+  }
+
+  @Test
+  public void canonicalFormOfDifferentPrograms() {
+    // different constant
+    assertDifferentCanonicalForm("(+ slack 1.0)", "(+ slack 2.0)");
+    // different terminal
+    assertDifferentCanonicalForm("(+ slack timeleft)",
+      "(+ slack insertioncost)");
+    // not commutative
+    assertDifferentCanonicalForm("(- slack timeleft)", "(- timeleft slack)");
+    assertDifferentCanonicalForm("(if4 slack timeleft 1.0 2.0)",
+      "(if4 timeleft slack 1.0 2.0)");
+    // different operator
+    assertDifferentCanonicalForm("(min slack timeleft)",
+      "(max slack timeleft)");
+  }
+
+  static void assertSameCanonicalForm(String prog1, String prog2) {
+    final List<GPFunc<double[]>> funcs = functionSet();
+    final GPProgram<double[]> p1 = GPProgramParser.parseProgramFunc(prog1,
+      funcs);
+    final GPProgram<double[]> p2 = GPProgramParser.parseProgramFunc(prog2,
+      funcs);
+    final BatchProgram<double[]> c1 = BatchProgram.doCompile(p1);
+    final BatchProgram<double[]> c2 = BatchProgram.doCompile(p2);
+    assertEquals(c1.canonicalForm(), c2.canonicalForm());
+    // programs with the same canonical form share their fitness, so they
+    // should compute the same values
+    final Random rng = new Random(321);
+    for (int i = 0; i < 1000; i++) {
+      final double[] context = new double[VARIABLES.size()];
+      for (int j = 0; j < context.length; j++) {
+        context[j] = (rng.nextDouble() - .5) * 100;
+      }
+      assertEquals(p1.compute(context), p2.compute(context), 0d);
+    }
+  }
+
+  static void assertDifferentCanonicalForm(String prog1, String prog2) {
+    final List<GPFunc<double[]>> funcs = functionSet();
+    assertNotEquals(
+      BatchProgram.doCompile(GPProgramParser.parseProgramFunc(prog1, funcs))
+        .canonicalForm(),
+      BatchProgram.doCompile(GPProgramParser.parseProgramFunc(prog2, funcs))
+        .canonicalForm());
+  }
+
+  // terminals of the same class that read different values of the context
+  @Test
+  public void cseDistinguishesFunctionsWithState() {
+    final GPProgram<double[]> prog = parse("(- a (- b (x a b)))",
+      new Var("a", 0), new Var("b", 1), new Mul<double[]>(),
+      new Sub<double[]>());
+    final BatchProgram<double[]> compiled = BatchProgram.doCompile(prog);
+    assertEquals(5, compiled.size());
+    assertEquivalent(prog, compiled, 2);
+  }
+
+  // anonymous functions of the same class that capture different values
+  @Test
+  public void cseDistinguishesCapturedState() {
+    final GPProgram<double[]> prog = parse("(- p (+ q p))", captured("p", 1),
+      captured("q", 2), new Add<double[]>(), new Sub<double[]>());
+    final BatchProgram<double[]> compiled = BatchProgram.doCompile(prog);
+    assertEquals(4, compiled.size());
+    assertEquals(-2d, compiled.compute(new double[0]), 0d);
+    assertEquivalent(prog, compiled, 0);
+  }
+
+  // different instances of a function without state are interchangeable
+  @Test
+  public void cseSharesStatelessFunctions() {
+    final GPProgram<double[]> prog = parse("(x (+ f g) (+ g f))",
+      new First("f"), new First("g"), new Add<double[]>(),
+      new Mul<double[]>());
+    final BatchProgram<double[]> compiled = BatchProgram.doCompile(prog);
+    // f, (+ f f), (x ..)
+    assertEquals(3, compiled.size());
+    assertEquivalent(prog, compiled, 1);
+  }
+
+  // compares the compiled program with the program for random contexts
+  static void assertEquivalent(GPProgram<double[]> prog,
+      BatchProgram<double[]> compiled, int numVars) {
+    final Random rng = new Random(123);
+    final double[] values = new double[] {0, 1, 2, 10, -1, .5};
+    final List<double[]> contexts = new ArrayList<>();
+    for (int i = 0; i < 1000; i++) {
+      final double[] context = new double[numVars];
+      for (int j = 0; j < numVars; j++) {
+        // a mix of the constants of the function set (which triggers the
+        // edge cases of e.g. the protected division) and random values
+        context[j] = rng.nextBoolean()
+          ? values[rng.nextInt(values.length)]
+          : (rng.nextDouble() - .5) * 1000;
+      }
+      contexts.add(context);
+    }
+    for (final double[] context : contexts) {
+      assertEquals(prog.getId(), prog.compute(context),
+        compiled.compute(context), 0d);
+    }
+  }
+
+  // the function set of FunctionSet with terminals that read the context
+  static List<GPFunc<double[]>> functionSet() {
+    final List<GPFunc<double[]>> funcs = new ArrayList<>();
+    funcs.addAll(Arrays.<GPFunc<double[]>>asList(new If4<double[]>(),
+      new Add<double[]>(), new Sub<double[]>(), new Div<double[]>(),
+      new Mul<double[]>(), new Pow<double[]>(), new Neg<double[]>(),
+      new Min<double[]>(), new Max<double[]>(), new Constant<double[]>(10),
+      new Constant<double[]>(2), new Constant<double[]>(1),
+      new Constant<double[]>(0)));
+    for (int i = 0; i < VARIABLES.size(); i++) {
+      funcs.add(new Var(VARIABLES.get(i), i));
+    }
+    return funcs;
+  }
+
+  static String randomProgram(List<GPFunc<double[]>> funcs, Random rng,
+      int depth) {
+    final GPFunc<double[]> func = funcs.get(rng.nextInt(funcs.size()));
+    if (depth == 0 && func.getNumChildren() > 0) {
+      return randomProgram(funcs, rng, depth);
+    }
+    if (func.getNumChildren() == 0) {
+      return func.name();
+    }
+    final StringBuilder sb = new StringBuilder("(").append(func.name());
+    for (int i = 0; i < func.getNumChildren(); i++) {
+      sb.append(' ').append(randomProgram(funcs, rng, depth - 1));
+    }
+    return sb.append(')').toString();
+  }
+
+  @SafeVarargs
+  static GPProgram<double[]> parse(String prog, GPFunc<double[]>... funcs) {
+    return GPProgramParser.parseProgramFunc(prog, Arrays.asList(funcs));
+  }
+
+  static GPFunc<double[]> captured(String name, final double value) {
+    return new GPFunc<double[]>(name, 0) {
+      private static final long serialVersionUID = 1L;
+
+      @Override
+      public double execute(double[] input, double[] context) {
+        return value;
+      }
+    };
+  }
+
+  // a terminal that reads a value of the context
+  static class Var extends GPFunc<double[]> {
+    private static final long serialVersionUID = 1L;
+    final int index;
+
+    Var(String name, int i) {
+      super(name, 0);
+      index = i;
+    }
+
+    @Override
+    public double execute(double[] input, double[] context) {
+      return context[index];
+    }
+  }
+
+  // a route-level terminal, reads the last value of the context
+  static class RouteVar extends GPFunc<double[]> {
+    private static final long serialVersionUID = 1L;
+
+    RouteVar() {
+      super("r", 0);
+    }
+
+    @Override
+    public double execute(double[] input, double[] context) {
+      return context[VARIABLES.size()];
+    }
+  }
+
+  public static class Route {
+    final double value;
+
+    Route(double v) {
+      value = v;
+    }
+  }
+
+  // a context of which the route is the route key
+  public static class Keyed {
+    @Nullable
+    final Route route;
+    final double insertion;
+
+    Keyed(@Nullable Route r, double i) {
+      route = r;
+      insertion = i;
+    }
+
+    @Nullable
+    public Route getRoute() {
+      return route;
+    }
+  }
+
+  // a route-level terminal that counts its evaluations
+  static class RouteTerminal extends GPFunc<Keyed> {
+    private static final long serialVersionUID = 1L;
+    int calls;
+
+    RouteTerminal() {
+      super("r", 0);
+    }
+
+    @Override
+    public double execute(double[] input, Keyed context) {
+      calls++;
+      return context.route == null ? 0d : context.route.value;
+    }
+  }
+
+  // an insertion-level terminal that counts its evaluations
+  static class InsertionTerminal extends GPFunc<Keyed> {
+    private static final long serialVersionUID = 1L;
+    int calls;
+
+    InsertionTerminal() {
+      super("ins", 0);
+    }
+
+    @Override
+    public double execute(double[] input, Keyed context) {
+      calls++;
+      return context.insertion;
+    }
+  }
+
+  // a terminal without state
+  static class First extends GPFunc<double[]> {
+    private static final long serialVersionUID = 1L;
+
+    First(String name) {
+      super(name, 0);
+    }
+
+    @Override
+    public double execute(double[] input, double[] context) {
+      return context[0];
+    }
+  }
+}
@@ -0,0 +1,49 @@
+/*
+ * Copyright (C) 2011-2016 Rinde van Lon, iMinds-DistriNet, KU Leuven
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.rinde.gpem17.evo;
+
+import static java.util.Arrays.asList;
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+/**
+ *
+ * @author Rinde van Lon
+ */
+public class TestCompositeSizer {
+
+  @Test
+  public void size() {
+    final CompositeSizer sizer = new CompositeSizer(10000L);
+    // nothing measured yet
+    assertEquals(25, sizer.size(25));
+
+    sizer.update(asList(900L, 1100L));
+    assertEquals(10, sizer.size(25));
+    assertEquals(5, sizer.size(5));
+
+    // average of 1000 and 250
+    sizer.update(asList(250L));
+    assertEquals(16, sizer.size(25));
+
+    // tasks shrink near the end
+    assertEquals(16, sizer.size(25, 1000, 4));
+    assertEquals(5, sizer.size(25, 40, 4));
+    assertEquals(1, sizer.size(25, 1, 4));
+    assertEquals(16, sizer.size(25, 1000, 0));
+  }
+}
@@ -0,0 +1,99 @@
+/*
+ * Copyright (C) 2011-2016 Rinde van Lon, iMinds-DistriNet, KU Leuven
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.rinde.gpem17.evo;
+
+import static java.util.Arrays.asList;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.List;
+
+import org.junit.Test;
+
+import com.github.rinde.rinsim.scenario.gendreau06.Gendreau06ObjectiveFunction;
+import com.google.common.collect.ImmutableList;
+
+/**
+ *
+ * @author Rinde van Lon
+ */
+public class TestCostVector {
+
+  @Test
+  public void dominates() {
+    final CostVector a = vector("a", 0, 10, 5, 0);
+    // better in one objective, equal in all others
+    assertTrue(a.dominates(vector("b", 0, 11, 5, 0)));
+    assertFalse(vector("b", 0, 11, 5, 0).dominates(a));
+    // better in one objective, worse in another
+    assertFalse(a.dominates(vector("c", 0, 9, 6, 0)));
+    assertFalse(vector("c", 0, 9, 6, 0).dominates(a));
+    // equal vectors do not dominate each other
+    assertFalse(a.dominates(vector("d", 0, 10, 5, 0)));
+    // an invalid simulation is worse than any cost
+    assertTrue(a.dominates(vector("e", 1, 10, 5, 0)));
+  }
+
+  @Test
+  public void rank() {
+    final List<CostVector> vectors = asList(
+      // front 0: mutually non-dominated, a and b are equal
+      vector("a", 0, 10, 10, 0),
+      vector("b", 0, 10, 10, 0),
+      vector("c", 0, 5, 20, 0),
+      vector("d", 0, 20, 5, 0),
+      // front 1: dominated by a and b, not by c or d
+      vector("e", 0, 11, 10, 0),
+      vector("f", 0, 6, 21, 0),
+      // front 2: dominated by e
+      vector("g", 0, 12, 11, 0),
+      // front 0: more invalid simulations but lower costs than all others
+      vector("h", 1, 0, 0, 0),
+      // front 3: dominated by g and h
+      vector("i", 1, 12, 11, 0));
+    CostVector.rank(vectors);
+    assertEquals(asList(0, 0, 0, 0, 1, 1, 2, 0, 3), ranks(vectors));
+  }
+
+  @Test
+  public void rankEmptyAndSingle() {
+    CostVector.rank(ImmutableList.<CostVector>of());
+    final List<CostVector> single = asList(vector("a", 3, 1, 2, 3));
+    single.get(0).paretoRank = 5;
+    CostVector.rank(single);
+    assertEquals(asList(0), ranks(single));
+  }
+
+  static List<Integer> ranks(List<CostVector> vectors) {
+    final ImmutableList.Builder<Integer> ranks = ImmutableList.builder();
+    for (final CostVector v : vectors) {
+      ranks.add(v.paretoRank);
+    }
+    return ranks.build();
+  }
+
+  static CostVector vector(String name, int invalid, double travelTime,
+      double tardiness, double overTime) {
+    final CostVector v = new CostVector(name,
+      ImmutableList.<Gendreau06ObjectiveFunction>of());
+    v.invalid = invalid;
+    v.travelTime = travelTime;
+    v.tardiness = tardiness;
+    v.overTime = overTime;
+    return v;
+  }
+}
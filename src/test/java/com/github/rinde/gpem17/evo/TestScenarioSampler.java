@@ -0,0 +1,62 @@
+/*
+ * Copyright (C) 2011-2016 Rinde van Lon, iMinds-DistriNet, KU Leuven
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *         http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+package com.github.rinde.gpem17.evo;
+
+import static java.util.Arrays.asList;
+import static org.junit.Assert.assertEquals;
+
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+/**
+ *
+ * @author Rinde van Lon
+ */
+public class TestScenarioSampler {
+
+  @Test
+  public void select() {
+    final List<Path> paths = new ArrayList<>();
+    for (int i = 0; i < 4; i++) {
+      paths.add(Paths.get("0.50-20-1.00-" + i + ".scen"));
+    }
+    for (int i = 0; i < 2; i++) {
+      paths.add(Paths.get("0.80-5-1.00-" + i + ".scen"));
+    }
+    final ScenarioSampler sampler = new ScenarioSampler(paths);
+
+    // unevaluated scenarios first, proportional to the size of each stratum
+    assertEquals(asList(paths.get(0), paths.get(1), paths.get(4)),
+      sampler.select(3, 0));
+
+    sampler.update("0.50-20-1.00-0", asList(10d, 10d), asList(100L, 100L));
+    sampler.update("0.50-20-1.00-1", asList(5d, 15d), asList(100L, 100L));
+    sampler.update("0.80-5-1.00-0", asList(5d, 15d), asList(100L, 100L));
+    assertEquals(asList(paths.get(2), paths.get(3), paths.get(5)),
+      sampler.select(3, 1));
+
+    sampler.update("0.50-20-1.00-2", asList(5d, 15d), asList(1000L, 1000L));
+    sampler.update("0.50-20-1.00-3", asList(10d, 10d), asList(100L, 100L));
+    sampler.update("0.80-5-1.00-1", asList(10d, 10d), asList(100L, 100L));
+    // the most discriminating scenarios per unit of computation time
+    assertEquals(asList(paths.get(1), paths.get(2), paths.get(4)),
+      sampler.select(3, 2));
+  }
+}
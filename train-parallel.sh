@@ -0,0 +1,2 @@
+mvn clean compile exec:java -Dexec.mainClass="com.github.rinde.gpem17.Train" \
+-Dexec.args="--parallel 4 files/config/experiments/"
@@ -0,0 +1,2 @@
+mvn compile exec:java -Dexec.mainClass="com.github.rinde.gpem17.eval.Worker" \
+-Dexec.args="${1:-localhost} ${2:-9100}"